@@ -0,0 +1,129 @@
+#!/usr/bin/env bash
+#
+#    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+#
+#    Licensed under the Apache License, Version 2.0 (the "License");
+#    you may not use this file except in compliance with the License.
+#    You may obtain a copy of the License at
+#
+#        http://www.apache.org/licenses/LICENSE-2.0
+#
+#    Unless required by applicable law or agreed to in writing, software
+#    distributed under the License is distributed on an "AS IS" BASIS,
+#    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#    See the License for the specific language governing permissions and
+#    limitations under the License.
+#
+# Starts the hub repeatedly in a new JVM and reports the startup times that StartupTimer logs: time-to-ready
+# and, if a command URL is given, time-to-first-command. Each run waits for the hub to become ready, executes
+# the command and stops the hub again.
+#
+# Usage: scripts/startup-benchmark.sh [-n runs] [-d directory] [-c command-url] [-m method] [-p] [-- java-args]
+#
+#   -n runs         number of cold starts, default 10
+#   -d directory    working directory of the hub, default target/fast-start
+#   -c command-url  URL that executes a command of a paired device, e.g. from the paired devices API
+#   -m method       HTTP method for the command URL, default POST
+#   -p              drop the page cache before every start (requires root), to measure starts from disk
+#   java-args       arguments of the java command, default the fast-start command line of pom.xml
+#
+# BCH_DB_FILEPATH and BCH_PLUGIN_PATH are passed to the hub as they are set.
+
+set -euo pipefail
+
+runs=10
+directory="target/fast-start"
+command_url=""
+method="POST"
+drop_page_cache=false
+timeout_seconds=300
+
+while getopts "n:d:c:m:p" option; do
+    case "${option}" in
+        n) runs="${OPTARG}" ;;
+        d) directory="${OPTARG}" ;;
+        c) command_url="${OPTARG}" ;;
+        m) method="${OPTARG}" ;;
+        p) drop_page_cache=true ;;
+        *) sed -n '21,31p' "$0"; exit 1 ;;
+    esac
+done
+shift $((OPTIND - 1))
+[ "${1:-}" = "--" ] && shift
+
+if [ $# -gt 0 ]; then
+    java_args=("$@")
+else
+    java_args=(-XX:SharedArchiveFile=berry-control-hub.jsa -Dspring.aot.enabled=true
+               -Dspring.profiles.active=faststart -jar)
+    java_args+=("$(cd "${directory}" && ls berry-control-hub-*-faststart.jar | head -n 1)")
+fi
+
+logs="$(mktemp -d)"
+trap 'rm -rf "${logs}"' EXIT
+
+# prints the value of a "Startup benchmark: <name> = <millis> ms" line of the log
+startup_time() {
+    sed -n "s/.*Startup benchmark: $1 = \([0-9]*\) ms.*/\1/p" "$2" | head -n 1
+}
+
+# waits until the log contains the startup time or the hub has terminated
+await_startup_time() {
+    local deadline=$((SECONDS + timeout_seconds))
+
+    while [ -z "$(startup_time "$1" "$2")" ]; do
+        if ! kill -0 "$3" 2>/dev/null || [ ${SECONDS} -ge ${deadline} ]; then
+            return 1
+        fi
+        sleep 0.1
+    done
+}
+
+summarize() {
+    sort -n | awk -v name="$1" '
+        { values[NR] = $1; sum += $1 }
+        END {
+            if (NR == 0) { printf "%-22s no values\n", name; exit }
+            median = NR % 2 ? values[(NR + 1) / 2] : (values[NR / 2] + values[NR / 2 + 1]) / 2
+            printf "%-22s min %6d ms   median %8.1f ms   mean %8.1f ms   max %6d ms   (%d runs)\n",
+                name, values[1], median, sum / NR, values[NR], NR
+        }'
+}
+
+for run in $(seq 1 "${runs}"); do
+    log="${logs}/run-${run}.log"
+
+    if ${drop_page_cache}; then
+        sync && echo 3 > /proc/sys/vm/drop_caches
+    fi
+
+    (cd "${directory}" && exec java "${java_args[@]}") > "${log}" 2>&1 &
+    pid=$!
+
+    if ! await_startup_time time-to-ready "${log}" "${pid}"; then
+        echo "Run ${run}: the hub didn't become ready, see its log:" >&2
+        tail -n 50 "${log}" >&2
+        kill "${pid}" 2>/dev/null || true
+        exit 1
+    fi
+
+    if [ -n "${command_url}" ]; then
+        curl --silent --show-error --output /dev/null --request "${method}" "${command_url}"
+        await_startup_time time-to-first-command "${log}" "${pid}" || true
+    fi
+
+    kill "${pid}" && wait "${pid}" 2>/dev/null || true
+
+    ready="$(startup_time time-to-ready "${log}")"
+    first_command="$(startup_time time-to-first-command "${log}")"
+    echo "Run ${run}: time-to-ready = ${ready} ms, time-to-first-command = ${first_command:--} ms"
+    echo "${ready}" >> "${logs}/time-to-ready"
+    [ -n "${first_command}" ] && echo "${first_command}" >> "${logs}/time-to-first-command"
+done
+
+echo
+summarize time-to-ready < "${logs}/time-to-ready"
+if [ -n "${command_url}" ]; then
+    touch "${logs}/time-to-first-command"
+    summarize time-to-first-command < "${logs}/time-to-first-command"
+fi
@@ -15,24 +15,64 @@
  */
 package com.github.berrycontrol.api;
 
+import com.github.berrycontrol.tracing.TraceSpan;
+import com.github.berrycontrol.tracing.Tracer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.web.context.request.NativeWebRequest;
 
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class AbstractApiDelegate {
+    // remotes send the same few Accept headers over and over, so parsing them once is enough
+    private static final int MAX_CACHED_ACCEPT_HEADERS = 64;
+    private static final Map<String, Boolean> acceptsApplicationJsonCache = new ConcurrentHashMap<>();
+
     @Autowired
     private NativeWebRequest request;
 
+    @Autowired
+    private Tracer tracer;
+
     public Optional<NativeWebRequest> getRequest() {
         return Optional.ofNullable(request);
     }
 
+    /**
+     * @return the current request or {@code null}; unlike {@link #getRequest()} this doesn't allocate
+     */
+    protected NativeWebRequest currentRequest() {
+        return request;
+    }
+
+    protected Tracer getTracer() {
+        return tracer;
+    }
+
     protected boolean acceptsApplicationJson(NativeWebRequest request) {
-        return MediaType
-            .parseMediaTypes(request.getHeader("Accept"))
-            .stream()
-            .anyMatch(mediaType -> mediaType.includes(MediaType.APPLICATION_JSON));
+        try (TraceSpan span = tracer.startSpan("acceptsApplicationJson")) {
+            String accept = request.getHeader("Accept");
+
+            if (accept == null) {
+                return false;
+            }
+
+            Boolean accepts = acceptsApplicationJsonCache.get(accept);
+
+            if (accepts == null) {
+                accepts = MediaType
+                    .parseMediaTypes(accept)
+                    .stream()
+                    .anyMatch(mediaType -> mediaType.includes(MediaType.APPLICATION_JSON));
+
+                if (acceptsApplicationJsonCache.size() < MAX_CACHED_ACCEPT_HEADERS) {
+                    acceptsApplicationJsonCache.put(accept, accepts);
+                }
+            }
+
+            return accepts;
+        }
     }
 }
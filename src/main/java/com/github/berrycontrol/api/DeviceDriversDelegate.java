@@ -19,7 +19,11 @@ import com.github.berrycontrol.driver.api.BerryHubDeviceDriverDescriptor;
 import com.github.berrycontrol.driver.api.BerryHubDeviceDriverException;
 import com.github.berrycontrol.driver.api.BerryHubDeviceInfo;
 import com.github.berrycontrol.driver.api.StartPairingResult;
+import com.github.berrycontrol.drivermanager.DriverCall;
 import com.github.berrycontrol.drivermanager.DriverManager;
+import com.github.berrycontrol.drivermanager.DriverWatchdog;
+import com.github.berrycontrol.events.HubEventBus;
+import com.github.berrycontrol.events.HubEventType;
 import com.github.berrycontrol.persistence.model.PairedDevice;
 import com.github.berrycontrol.persistence.repository.PairedDevicesRepository;
 import com.github.berrycontrol.server.api.DeviceDriversApiDelegate;
@@ -29,6 +33,7 @@ import com.github.berrycontrol.server.model.FinalizePairingRequest;
 import com.github.berrycontrol.server.model.FinalizePairingResponse;
 import com.github.berrycontrol.server.model.StartPairingRequest;
 import com.github.berrycontrol.server.model.StartPairingResponse;
+import com.github.berrycontrol.tracing.TraceSpan;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -47,10 +52,19 @@ public class DeviceDriversDelegate extends AbstractApiDelegate implements Device
 
     private final DriverManager driverManager;
     private final  PairedDevicesRepository pairedDevicesRepository;
+    private final HubEventBus eventBus;
+    private final DriverWatchdog watchdog;
+
+    public DeviceDriversDelegate(
+        DriverManager driverManager,
+        PairedDevicesRepository pairedDevicesRepository,
+        HubEventBus eventBus,
+        DriverWatchdog watchdog) {
 
-    public DeviceDriversDelegate(DriverManager driverManager, PairedDevicesRepository pairedDevicesRepository) {
         this.driverManager = driverManager;
         this.pairedDevicesRepository = pairedDevicesRepository;
+        this.eventBus = eventBus;
+        this.watchdog = watchdog;
     }
 
     @Override
@@ -95,7 +109,12 @@ public class DeviceDriversDelegate extends AbstractApiDelegate implements Device
 
                     if (deviceInfoOptional.isPresent()) {
                         BerryHubDeviceInfo deviceInfo = deviceInfoOptional.get();
-                        try {
+                        try (TraceSpan span = this.getTracer()
+                            .startSpan("startPairing")
+                            .attribute("driver.id", driverId)
+                            .attribute("device.id", deviceId);
+                             DriverCall call = this.watchdog.enter(driverId.toString(), "startPairing")) {
+
                             StartPairingResult pairingResult = drv.startPairing(deviceInfo, startPairingRequest.getRemoteName());
                             return ResponseEntity.ok(new StartPairingResponse()
                                 .pairingRequest(UUID.fromString(pairingResult.getPairingRequestId()))
@@ -129,27 +148,48 @@ public class DeviceDriversDelegate extends AbstractApiDelegate implements Device
                     BerryHubDeviceDriverDescriptor drv = driverOptional.get();
 
                     try {
-                        boolean paired = drv.finalizePairing(
-                            pairingRequestId.toString(),
-                            finalizePairingRequest.getPin(),
-                            finalizePairingRequest.getDeviceProvidesPin());
+                        boolean paired;
+
+                        try (TraceSpan span = this.getTracer()
+                            .startSpan("finalizePairing")
+                            .attribute("driver.id", driverId)
+                            .attribute("device.id", deviceId);
+                             DriverCall call = this.watchdog.enter(driverId.toString(), "finalizePairing")) {
+
+                            paired = drv.finalizePairing(
+                                pairingRequestId.toString(),
+                                finalizePairingRequest.getPin(),
+                                finalizePairingRequest.getDeviceProvidesPin());
+                        }
 
                         if (paired) {
-                            // persist paired device
-                            pairedDevicesRepository
-                                .save(
-                                    PairedDevice
-                                        .builder()
-                                        .id(UUID.randomUUID())
-                                        .driverId(driverId.toString())
-                                        .deviceId(deviceId)
-                                        .deviceName(
-                                            String
-                                                .format(
-                                                    "%s (%s)",
-                                                    this.driverManager.getDeviceInfo(drv, deviceId).get().getName(),
-                                                    drv.getDisplayName()))
-                                        .build());
+                            // persist paired device; a device that is paired again keeps its pairing
+                            Optional<PairedDevice> existingPairing = pairedDevicesRepository
+                                .findByDriverIdAndDeviceId(driverId.toString(), deviceId);
+                            PairedDevice pairedDevice = existingPairing
+                                .orElseGet(() -> PairedDevice
+                                    .builder()
+                                    .id(UUID.randomUUID())
+                                    .driverId(driverId.toString())
+                                    .deviceId(deviceId)
+                                    .build());
+
+                            pairedDevice.setDeviceName(
+                                String
+                                    .format(
+                                        "%s (%s)",
+                                        this.driverManager.getDeviceInfo(drv, deviceId).get().getName(),
+                                        drv.getDisplayName()));
+                            pairedDevice = pairedDevicesRepository.save(pairedDevice);
+
+                            if (existingPairing.isEmpty()) {
+                                this.eventBus.publish(
+                                    HubEventType.PAIRING_ADDED,
+                                    pairedDevice.getDriverId(),
+                                    pairedDevice.getDeviceId(),
+                                    pairedDevice.getId(),
+                                    null);
+                            }
                         }
 
                         return ResponseEntity.ok(new FinalizePairingResponse().deviceHasPaired(paired));
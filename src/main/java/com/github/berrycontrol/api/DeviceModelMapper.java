@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.api;
+
+import com.github.berrycontrol.drivermanager.DeviceHandle;
+import com.github.berrycontrol.icons.IconCache;
+import com.github.berrycontrol.server.model.DeviceCommand;
+import com.github.berrycontrol.server.model.PairedDevice;
+import com.github.berrycontrol.server.model.RemoteLayout;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Maps paired devices and their driver instances to the API model.
+ */
+@Component
+public class DeviceModelMapper {
+    private final IconCache iconCache;
+
+    public DeviceModelMapper(IconCache iconCache) {
+        this.iconCache = iconCache;
+    }
+
+    public PairedDevice toPairedDevice(com.github.berrycontrol.persistence.model.PairedDevice pairedDevice) {
+        return new PairedDevice()
+            .pairingId(pairedDevice.getId())
+            .driverId(UUID.fromString(pairedDevice.getDriverId()))
+            .deviceId(pairedDevice.getDeviceId())
+            .deviceName(pairedDevice.getDeviceName());
+    }
+
+    public List<DeviceCommand> toDeviceCommands(DeviceHandle device) {
+        UUID driverId = UUID.fromString(device.getDriverId());
+
+        return device.getCommands().stream()
+            .map(cmd ->
+                new DeviceCommand()
+                    .pairingId(device.getPairingId())
+                    .driverId(driverId)
+                    .deviceId(device.getDeviceId())
+                    .commandId(cmd.getId())
+                    .name(cmd.getTitle())
+                    .icon(this.iconCache.toIconReference(driverId, cmd.getId(), cmd.getIcon())))
+            .toList();
+    }
+
+    public RemoteLayout toRemoteLayout(DeviceHandle device) {
+        return new RemoteLayout()
+            .width(device.getRemoteLayoutWidth())
+            .height(device.getRemoteLayoutHeight())
+            .buttons(this.toButtonsList(device.getRemoteLayout()));
+    }
+
+    private List<List<Integer>> toButtonsList(int[][] remoteLayout) {
+        return Arrays.stream(remoteLayout)
+            .map(row -> IntStream.of(row)
+                .boxed()
+                .toList())
+            .toList();
+    }
+}
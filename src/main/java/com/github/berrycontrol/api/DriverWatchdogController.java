@@ -0,0 +1,57 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.api;
+
+import com.github.berrycontrol.config.VirtualThreadPinningMonitor;
+import com.github.berrycontrol.drivermanager.DriverWatchdog;
+import com.github.berrycontrol.drivermanager.DriverWatchdogStatistics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+public class DriverWatchdogController {
+    private final DriverWatchdog watchdog;
+    private final ObjectProvider<VirtualThreadPinningMonitor> pinningMonitor;
+
+    public DriverWatchdogController(
+        DriverWatchdog watchdog, ObjectProvider<VirtualThreadPinningMonitor> pinningMonitor) {
+
+        this.watchdog = watchdog;
+        this.pinningMonitor = pinningMonitor;
+    }
+
+    @GetMapping(path = "/watchdog/stuck-calls", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<DriverWatchdogStatistics>> getStuckCalls() {
+        return ResponseEntity.ok(this.watchdog.getStatistics());
+    }
+
+    /**
+     * @return the number of times a virtual thread got pinned to its carrier, per driver; empty if the hub
+     *         doesn't run on virtual threads
+     */
+    @GetMapping(path = "/watchdog/virtual-thread-pinning", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, Long>> getVirtualThreadPinning() {
+        VirtualThreadPinningMonitor monitor = this.pinningMonitor.getIfAvailable();
+
+        return ResponseEntity.ok(monitor != null ? monitor.getPinningCounts() : Map.of());
+    }
+}
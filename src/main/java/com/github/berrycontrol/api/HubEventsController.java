@@ -0,0 +1,226 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.api;
+
+import com.github.berrycontrol.events.HubEvent;
+import com.github.berrycontrol.events.HubEventBus;
+import com.github.berrycontrol.events.HubEventSubscription;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes hub events to remotes as server-sent events, so that they don't have to poll for changes.
+ * <p>
+ * Writing to a remote blocks, hence the scheduled tasks only hand pending events to a delivery thread and
+ * never write themselves. Deliveries run on virtual threads if they are enabled, otherwise on a pool of
+ * {@code berry-control-hub.events.delivery-threads} threads. Every remote has at most one delivery in
+ * flight; a remote whose delivery doesn't complete within {@code berry-control-hub.events.write-timeout} is
+ * disconnected as soon as its blocked write returns, which at the latest is the connection timeout of the
+ * server.
+ */
+@RestController
+public class HubEventsController {
+    private final static Logger logger = LoggerFactory.getLogger(HubEventsController.class);
+
+    private final HubEventBus eventBus;
+    private final long writeTimeoutNanos;
+    private final Map<HubEventSubscription, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final TaskExecutor deliveryExecutor;
+
+    public HubEventsController(
+        HubEventBus eventBus,
+        @Value("${berry-control-hub.events.write-timeout:5s}") Duration writeTimeout,
+        @Value("${berry-control-hub.events.delivery-threads:4}") int deliveryThreads,
+        @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+
+        this.eventBus = eventBus;
+        this.writeTimeoutNanos = writeTimeout.toNanos();
+        this.deliveryExecutor = createDeliveryExecutor(deliveryThreads, virtualThreads);
+    }
+
+    @GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamEvents() {
+        // a timeout of 0 keeps the connection open until the client goes away
+        SseEmitter emitter = new SseEmitter(0L);
+        HubEventSubscription subscription = this.eventBus.subscribe();
+
+        emitter.onCompletion(() -> this.close(subscription));
+        emitter.onTimeout(() -> this.close(subscription));
+        emitter.onError(ex -> this.close(subscription));
+        this.subscribers.put(subscription, new Subscriber(subscription, emitter));
+
+        return emitter;
+    }
+
+    @Scheduled(fixedDelayString = "${berry-control-hub.events.flush-interval:100}")
+    public void flushEvents() {
+        if (this.subscribers.isEmpty()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        this.subscribers.values().forEach(subscriber -> {
+            if (subscriber.delivering.get()) {
+                if (now - subscriber.deliveryStartNanos > this.writeTimeoutNanos) {
+                    logger.info("Subscription {} didn't accept events within the write timeout, closing it.",
+                        subscriber.subscription.getId());
+                    this.close(subscriber.subscription);
+                    // completing the emitter would wait for the blocked write, the delivery completes it
+                    subscriber.closing = true;
+                    if (!subscriber.delivering.get()) {
+                        subscriber.complete();
+                    }
+                }
+                return;
+            }
+
+            if (subscriber.subscription.isClosed()) {
+                // the bus dropped this subscription because the client was too slow, the delivery completes it
+                this.subscribers.remove(subscriber.subscription);
+                this.deliver(subscriber, now);
+            } else if (subscriber.subscription.hasEvents() || subscriber.heartbeatPending) {
+                this.deliver(subscriber, now);
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${berry-control-hub.events.heartbeat-interval:30000}")
+    public void sendHeartbeat() {
+        this.subscribers.values().forEach(subscriber -> subscriber.heartbeatPending = true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (this.deliveryExecutor instanceof ThreadPoolTaskExecutor threadPool) {
+            threadPool.shutdown();
+        }
+    }
+
+    private void deliver(Subscriber subscriber, long now) {
+        if (!subscriber.delivering.compareAndSet(false, true)) {
+            return;
+        }
+
+        subscriber.deliveryStartNanos = now;
+        this.deliveryExecutor.execute(() -> {
+            try {
+                subscriber.send();
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Sending events to subscription {} failed, closing it.",
+                    subscriber.subscription.getId(), e);
+                this.close(subscriber.subscription);
+                subscriber.closing = true;
+            } finally {
+                subscriber.delivering.set(false);
+                if (subscriber.closing) {
+                    subscriber.complete();
+                }
+            }
+        });
+    }
+
+    private void close(HubEventSubscription subscription) {
+        this.eventBus.unsubscribe(subscription);
+        this.subscribers.remove(subscription);
+    }
+
+    private static TaskExecutor createDeliveryExecutor(int deliveryThreads, boolean virtualThreads) {
+        if (virtualThreads) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("event-delivery-");
+
+            executor.setVirtualThreads(true);
+            return executor;
+        }
+
+        // every remote has at most one delivery queued, so the queue is bounded by the number of remotes
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+        executor.setCorePoolSize(deliveryThreads);
+        executor.setMaxPoolSize(deliveryThreads);
+        executor.setThreadNamePrefix("event-delivery-");
+        executor.setDaemon(true);
+        executor.initialize();
+        return executor;
+    }
+
+    private static class Subscriber {
+        private final HubEventSubscription subscription;
+        private final SseEmitter emitter;
+        private final AtomicBoolean delivering = new AtomicBoolean(false);
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+        private final List<HubEvent> events = new ArrayList<>();
+        private volatile long deliveryStartNanos;
+        private volatile boolean heartbeatPending = false;
+        private volatile boolean closing = false;
+
+        Subscriber(HubEventSubscription subscription, SseEmitter emitter) {
+            this.subscription = subscription;
+            this.emitter = emitter;
+        }
+
+        /**
+         * Ends the stream of the remote; must not be called while a delivery is in flight.
+         */
+        void complete() {
+            if (this.completed.compareAndSet(false, true)) {
+                this.emitter.complete();
+            }
+        }
+
+        void send() throws IOException {
+            if (this.subscription.isClosed()) {
+                this.complete();
+                return;
+            }
+
+            this.events.clear();
+            this.subscription.drainTo(this.events);
+
+            for (HubEvent event : this.events) {
+                this.emitter.send(
+                    SseEmitter
+                        .event()
+                        .id(Long.toString(event.getSequence()))
+                        .name(event.getType().name())
+                        .data(event, MediaType.APPLICATION_JSON));
+            }
+
+            if (this.heartbeatPending) {
+                this.heartbeatPending = false;
+                this.emitter.send(SseEmitter.event().comment("heartbeat"));
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.api;
+
+import com.github.berrycontrol.snapshot.HubSnapshotService;
+import com.github.berrycontrol.snapshot.SnapshotImportResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RestController
+public class HubSnapshotController {
+    private final static Logger logger = LoggerFactory.getLogger(HubSnapshotController.class);
+
+    private final HubSnapshotService snapshotService;
+
+    public HubSnapshotController(HubSnapshotService snapshotService) {
+        this.snapshotService = snapshotService;
+    }
+
+    @GetMapping(path = "/hub/snapshot", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportSnapshot() {
+        return ResponseEntity
+            .ok()
+            .header(
+                HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename("berry-control-hub.snapshot").build().toString())
+            .body(this.snapshotService::exportSnapshot);
+    }
+
+    @PostMapping(
+        path = "/hub/snapshot",
+        consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+        produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<SnapshotImportResult> importSnapshot(InputStream body) {
+        try {
+            return ResponseEntity.ok(this.snapshotService.importSnapshot(body));
+        } catch (IOException e) {
+            logger.error("Error while importing hub snapshot.", e);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid hub snapshot.");
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.api;
+
+import com.github.berrycontrol.icons.IconCache;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Serves the command icons from the {@link IconCache}. Icon URLs are content-addressed, hence the responses
+ * can be cached by clients forever.
+ */
+@RestController
+public class IconsController {
+    private static final String CACHE_CONTROL =
+        CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable().getHeaderValue();
+    private static final String NO_STORE = CacheControl.noStore().getHeaderValue();
+
+    // request attributes of Tomcat's sendfile support, used to transfer files without copying them
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final IconCache iconCache;
+
+    public IconsController(IconCache iconCache) {
+        this.iconCache = iconCache;
+    }
+
+    @GetMapping(IconCache.ICONS_PATH + "{name}")
+    public void readIcon(@PathVariable("name") String name, HttpServletRequest request, HttpServletResponse response)
+        throws IOException {
+
+        if (!IconCache.isValidName(name)) {
+            throw notFound(response);
+        }
+
+        // the caching headers are only sent with the icon, a 404 must not be cached
+        byte[] data = this.iconCache.getFromMemory(name);
+        Path file = data == null ? this.iconCache.getFile(name).orElseThrow(() -> notFound(response)) : null;
+        String etag = "\"" + name.substring(0, name.indexOf('.')) + "\"";
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ETAG, etag);
+
+        if (etag.equals(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        response.setContentType(
+            MediaTypeFactory.getMediaType(name).orElse(MediaType.APPLICATION_OCTET_STREAM).toString());
+
+        if (data != null) {
+            response.setContentLength(data.length);
+            response.getOutputStream().write(data);
+            return;
+        }
+
+        long size = Files.size(file);
+
+        response.setContentLengthLong(size);
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, 0L);
+            request.setAttribute(SENDFILE_END, size);
+        } else {
+            data = Files.readAllBytes(file);
+            response.getOutputStream().write(data);
+            this.iconCache.putIntoMemory(name, data);
+        }
+    }
+
+    private static ResponseStatusException notFound(HttpServletResponse response) {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, NO_STORE);
+        return new ResponseStatusException(HttpStatus.NOT_FOUND);
+    }
+}
@@ -1,40 +1,61 @@
 package com.github.berrycontrol.api;
 
+import com.github.berrycontrol.config.StartupTimer;
 import com.github.berrycontrol.driver.api.BerryHubDeviceCommand;
-import com.github.berrycontrol.driver.api.BerryHubDeviceDriver;
-import com.github.berrycontrol.drivermanager.DriverManager;
+import com.github.berrycontrol.drivermanager.DeviceHandle;
+import com.github.berrycontrol.drivermanager.DeviceHandleRegistry;
+import com.github.berrycontrol.drivermanager.DriverCall;
+import com.github.berrycontrol.drivermanager.DriverWatchdog;
+import com.github.berrycontrol.events.HubEventBus;
+import com.github.berrycontrol.events.HubEventType;
 import com.github.berrycontrol.persistence.repository.PairedDevicesRepository;
 import com.github.berrycontrol.server.api.PairedDevicesApiDelegate;
 import com.github.berrycontrol.server.model.DeviceCommand;
 import com.github.berrycontrol.server.model.PairedDevice;
 import com.github.berrycontrol.server.model.RemoteLayout;
+import com.github.berrycontrol.tracing.TraceSpan;
 import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.NativeWebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.UUID;
 import java.util.function.Function;
-import java.util.stream.IntStream;
 
 @Service
 public class PairedDeviceDelegate extends AbstractApiDelegate implements PairedDevicesApiDelegate {
     private final static Logger logger = LoggerFactory.getLogger(PairedDeviceDelegate.class);
 
-    private final DriverManager driverManager;
-    private final PairedDevicesRepository pairedDevicesRepository;
+    private static final ResponseEntity<Void> NO_CONTENT = ResponseEntity.noContent().build();
 
-    public PairedDeviceDelegate(DriverManager driverManager, PairedDevicesRepository pairedDevicesRepository) {
-        this.driverManager = driverManager;
+    private final DeviceHandleRegistry deviceHandles;
+    private final DeviceModelMapper mapper;
+    private final PairedDevicesRepository pairedDevicesRepository;
+    private final HubEventBus eventBus;
+    private final StartupTimer startupTimer;
+    private final DriverWatchdog watchdog;
+
+    public PairedDeviceDelegate(
+        DeviceHandleRegistry deviceHandles,
+        DeviceModelMapper mapper,
+        PairedDevicesRepository pairedDevicesRepository,
+        HubEventBus eventBus,
+        StartupTimer startupTimer,
+        DriverWatchdog watchdog) {
+
+        this.deviceHandles = deviceHandles;
+        this.mapper = mapper;
         this.pairedDevicesRepository = pairedDevicesRepository;
+        this.eventBus = eventBus;
+        this.startupTimer = startupTimer;
+        this.watchdog = watchdog;
     }
 
     @Override
@@ -42,7 +63,7 @@ public class PairedDeviceDelegate extends AbstractApiDelegate implements PairedD
         return this.getRequest().map(request -> {
             if (acceptsApplicationJson(request)) {
                 return ResponseEntity.ok(
-                    this.pairedDevicesRepository.findAll().stream().map(this::toPairedDevice).toList());
+                    this.pairedDevicesRepository.findAll().stream().map(this.mapper::toPairedDevice).toList());
             } else {
                 throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE);
             }
@@ -55,7 +76,16 @@ public class PairedDeviceDelegate extends AbstractApiDelegate implements PairedD
             this.pairedDevicesRepository
                 .findById(pairingId)
                 .ifPresentOrElse(
-                    this.pairedDevicesRepository::delete,
+                    pairedDevice -> {
+                        this.pairedDevicesRepository.delete(pairedDevice);
+                        this.deviceHandles.invalidate(pairedDevice.getId());
+                        this.eventBus.publish(
+                            HubEventType.PAIRING_REMOVED,
+                            pairedDevice.getDriverId(),
+                            pairedDevice.getDeviceId(),
+                            pairedDevice.getId(),
+                            null);
+                    },
                     () -> {
                         throw new ResponseStatusException(HttpStatus.NOT_FOUND);
                     });
@@ -64,39 +94,14 @@ public class PairedDeviceDelegate extends AbstractApiDelegate implements PairedD
         }).orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST));
     }
 
-    private PairedDevice toPairedDevice(com.github.berrycontrol.persistence.model.PairedDevice pairedDevice) {
-        return new PairedDevice()
-            .pairingId(pairedDevice.getId())
-            .driverId(UUID.fromString(pairedDevice.getDriverId()))
-            .deviceId(pairedDevice.getDeviceId())
-            .deviceName(pairedDevice.getDeviceName());
-    }
-
-    @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public ResponseEntity<List<DeviceCommand>> readDeviceCommands(UUID pairingId) {
         return this.getRequest().map(request -> {
             if (acceptsApplicationJson(request)) {
-                Optional<com.github.berrycontrol.persistence.model.PairedDevice> pairedDevice =
-                    this.pairedDevicesRepository.findById(pairingId);
-
-                if (pairedDevice.isPresent()) {
-                    Optional<BerryHubDeviceDriver> device =
-                        this.driverManager.getDriverInstance(
-                            pairedDevice.get().getDriverId(), pairedDevice.get().getDeviceId());
-
-                    if (device.isPresent()) {
-                        return ResponseEntity.ok((List<DeviceCommand>) device.get().getCommands().stream()
-                            .map(cmd ->
-                                new DeviceCommand()
-                                    .pairingId(pairingId)
-                                    .driverId(UUID.fromString(pairedDevice.get().getDriverId()))
-                                    .deviceId(pairedDevice.get().getDeviceId())
-                                    .commandId(((BerryHubDeviceCommand) cmd).getId())
-                                    .name(((BerryHubDeviceCommand) cmd).getTitle())
-                                    .icon(((BerryHubDeviceCommand) cmd).getIcon()))
-                            .toList());
-                    }
+                DeviceHandle device = this.deviceHandles.getHandle(pairingId);
+
+                if (device != null) {
+                    return ResponseEntity.ok(this.mapper.toDeviceCommands(device));
                 }
 
                 throw new ResponseStatusException(HttpStatus.NOT_FOUND);
@@ -106,26 +111,14 @@ public class PairedDeviceDelegate extends AbstractApiDelegate implements PairedD
         }).orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST));
     }
 
-    @SuppressWarnings("rawtypes")
     @Override
     public ResponseEntity<RemoteLayout> readDeviceRemoteLayout(UUID pairingId) {
         return this.getRequest().map(request -> {
             if (acceptsApplicationJson(request)) {
-                Optional<com.github.berrycontrol.persistence.model.PairedDevice> pairedDevice =
-                    this.pairedDevicesRepository.findById(pairingId);
-
-                if (pairedDevice.isPresent()) {
-                    Optional<BerryHubDeviceDriver> device =
-                        this.driverManager.getDriverInstance(
-                            pairedDevice.get().getDriverId(), pairedDevice.get().getDeviceId());
-
-                    if (device.isPresent()) {
-                        return ResponseEntity.ok(
-                            new RemoteLayout()
-                                .width(device.get().getRemoteLayoutWidth())
-                                .height(device.get().getRemoteLayoutHeight())
-                                .buttons(this.toButtonsList(device.get().getRemoteLayout())));
-                    }
+                DeviceHandle device = this.deviceHandles.getHandle(pairingId);
+
+                if (device != null) {
+                    return ResponseEntity.ok(this.mapper.toRemoteLayout(device));
                 }
 
                 throw new ResponseStatusException(HttpStatus.NOT_FOUND);
@@ -135,41 +128,45 @@ public class PairedDeviceDelegate extends AbstractApiDelegate implements PairedD
         }).orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST));
     }
 
-    private List<List<Integer>> toButtonsList(int[][] remoteLayout) {
-        return Arrays.stream(remoteLayout)
-            .map(row -> IntStream.of(row)
-                .boxed()
-                .toList())
-            .toList();
-    }
-
+    /**
+     * This is the hot path while keys are repeated on a remote, hence it avoids the Optional/lambda chains of
+     * the other methods and doesn't allocate once the device handle has been resolved.
+     */
     @Override
     public ResponseEntity<Void> executeDeviceCommand(UUID pairingId, Integer commandId) {
-        //return PairedDevicesApiDelegate.super.executeDeviceCommand(pairingId, commandId);
-        return this.getRequest().map(request -> {
-            if (acceptsApplicationJson(request)) {
-                Optional<com.github.berrycontrol.persistence.model.PairedDevice> pairedDevice =
-                    this.pairedDevicesRepository.findById(pairingId);
-
-                if (pairedDevice.isPresent()) {
-                    Optional<BerryHubDeviceDriver> device =
-                        this.driverManager.getDriverInstance(
-                            pairedDevice.get().getDriverId(), pairedDevice.get().getDeviceId());
-
-                    device
-                        .get()
-                        .getCommand(commandId)
-                        .ifPresentOrElse(
-                            cmd -> device.get().execute((BerryHubDeviceCommand) cmd),
-                            () -> { throw new ResponseStatusException(HttpStatus.NOT_FOUND); });
-
-                    return new ResponseEntity(HttpStatus.NO_CONTENT);
-                }
-
-                throw new ResponseStatusException(HttpStatus.NOT_FOUND);
-            } else {
-                throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE);
-            }
-        }).orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST));
+        NativeWebRequest request = this.currentRequest();
+
+        if (request == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST);
+        }
+        if (!acceptsApplicationJson(request)) {
+            throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE);
+        }
+
+        DeviceHandle device = this.deviceHandles.getHandle(pairingId);
+        BerryHubDeviceCommand command;
+
+        try (TraceSpan span = this.getTracer().startSpan("getCommand")) {
+            command = device != null ? device.getCommand(commandId) : null;
+        }
+
+        if (command == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+
+        try (TraceSpan span = this.getTracer()
+            .startSpan("execute")
+            .attribute("driver.id", device.getDriverId())
+            .attribute("device.id", device.getDeviceId())
+            .attribute("command.id", commandId);
+             DriverCall call = this.watchdog.enter(device.getDriverId(), "execute")) {
+
+            device.execute(command);
+        }
+        this.startupTimer.commandExecuted();
+        this.eventBus.publish(
+            HubEventType.COMMAND_EXECUTED, device.getDriverId(), device.getDeviceId(), pairingId, commandId);
+
+        return NO_CONTENT;
     }
 }
@@ -0,0 +1,226 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.api;
+
+import com.github.berrycontrol.api.model.PairedDeviceImport;
+import com.github.berrycontrol.api.model.PairedDevicesPage;
+import com.github.berrycontrol.drivermanager.DeviceHandle;
+import com.github.berrycontrol.drivermanager.DeviceHandleRegistry;
+import com.github.berrycontrol.events.HubEventBus;
+import com.github.berrycontrol.events.HubEventType;
+import com.github.berrycontrol.persistence.model.PairedDevice;
+import com.github.berrycontrol.persistence.repository.PairedDevicesRepository;
+import com.github.berrycontrol.server.model.DeviceCommand;
+import com.github.berrycontrol.server.model.RemoteLayout;
+import jakarta.persistence.EntityManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Paged, filtered and bulk access to the paired devices for integrators that manage large installations.
+ * Every endpoint issues a fixed number of queries, independent of the number of devices it handles.
+ */
+@RestController
+@RequestMapping(path = "/paired-devices", produces = MediaType.APPLICATION_JSON_VALUE)
+public class PairedDevicesBulkController {
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final List<String> FIELDS = List.of("pairingId", "driverId", "deviceId", "deviceName");
+
+    private final PairedDevicesRepository pairedDevicesRepository;
+    private final DeviceHandleRegistry deviceHandles;
+    private final DeviceModelMapper mapper;
+    private final HubEventBus eventBus;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+
+    public PairedDevicesBulkController(
+        PairedDevicesRepository pairedDevicesRepository,
+        DeviceHandleRegistry deviceHandles,
+        DeviceModelMapper mapper,
+        HubEventBus eventBus,
+        EntityManager entityManager,
+        PlatformTransactionManager transactionManager) {
+
+        this.pairedDevicesRepository = pairedDevicesRepository;
+        this.deviceHandles = deviceHandles;
+        this.mapper = mapper;
+        this.eventBus = eventBus;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @GetMapping("/page")
+    public ResponseEntity<PairedDevicesPage> readPairedDevicesPage(
+        @RequestParam(name = "page", defaultValue = "0") int page,
+        @RequestParam(name = "size", defaultValue = "50") int size,
+        @RequestParam(name = "driverId", required = false) UUID driverId,
+        @RequestParam(name = "fields", required = false) List<String> fields) {
+
+        if (page < 0 || size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(
+                HttpStatus.BAD_REQUEST, String.format("page must be >= 0 and size between 1 and %d.", MAX_PAGE_SIZE));
+        }
+
+        List<String> projection = fields == null || fields.isEmpty() ? FIELDS : fields;
+
+        if (!FIELDS.containsAll(projection)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Supported fields are " + FIELDS + ".");
+        }
+
+        PageRequest pageRequest = PageRequest.of(page, size, Sort.by("deviceName", "id"));
+        Page<PairedDevice> result = driverId == null
+            ? this.pairedDevicesRepository.findAll(pageRequest)
+            : this.pairedDevicesRepository.findByDriverId(driverId.toString(), pageRequest);
+
+        return ResponseEntity.ok(
+            PairedDevicesPage
+                .builder()
+                .content(result.getContent().stream().map(dev -> this.project(dev, projection)).toList())
+                .page(result.getNumber())
+                .size(result.getSize())
+                .totalElements(result.getTotalElements())
+                .totalPages(result.getTotalPages())
+                .build());
+    }
+
+    @PostMapping(path = "/bulk/import", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<com.github.berrycontrol.server.model.PairedDevice>> importPairedDevices(
+        @RequestBody List<PairedDeviceImport> imports) {
+
+        if (imports.stream().anyMatch(imp -> imp.getDriverId() == null || imp.getDeviceId() == null)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "driverId and deviceId are required.");
+        }
+
+        Set<String> driverIds = imports.stream().map(imp -> imp.getDriverId().toString()).collect(Collectors.toSet());
+        Set<String> deviceIds = imports.stream().map(PairedDeviceImport::getDeviceId).collect(Collectors.toSet());
+        Set<String> existing = this.pairedDevicesRepository
+            .findByDriverIdInAndDeviceIdIn(driverIds, deviceIds)
+            .stream()
+            .map(dev -> key(dev.getDriverId(), dev.getDeviceId()))
+            .collect(Collectors.toSet());
+        Set<UUID> existingIds = this.pairedDevicesRepository
+            .findAllById(imports.stream().map(PairedDeviceImport::getPairingId).filter(Objects::nonNull).toList())
+            .stream()
+            .map(PairedDevice::getId)
+            .collect(Collectors.toSet());
+
+        List<PairedDevice> pairedDevices = imports
+            .stream()
+            // existing pairings and duplicates within the import are skipped
+            .filter(imp -> imp.getPairingId() == null || existingIds.add(imp.getPairingId()))
+            .filter(imp -> existing.add(key(imp.getDriverId().toString(), imp.getDeviceId())))
+            .map(imp -> PairedDevice
+                .builder()
+                .id(imp.getPairingId() != null ? imp.getPairingId() : UUID.randomUUID())
+                .driverId(imp.getDriverId().toString())
+                .deviceId(imp.getDeviceId())
+                .deviceName(imp.getDeviceName() != null ? imp.getDeviceName() : imp.getDeviceId())
+                .build())
+            .toList();
+
+        // the pairing IDs are assigned, saveAll() would merge and thereby select every pairing before inserting it
+        this.transactionTemplate.executeWithoutResult(status -> {
+            pairedDevices.forEach(this.entityManager::persist);
+            this.entityManager.flush();
+            this.entityManager.clear();
+        });
+
+        pairedDevices.forEach(dev -> this.eventBus.publish(
+            HubEventType.PAIRING_ADDED, dev.getDriverId(), dev.getDeviceId(), dev.getId(), null));
+
+        return ResponseEntity.ok(pairedDevices.stream().map(this.mapper::toPairedDevice).toList());
+    }
+
+    @PostMapping(path = "/bulk/unpair", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Void> unpairDevices(@RequestBody List<UUID> pairingIds) {
+        List<PairedDevice> pairedDevices = this.pairedDevicesRepository.findAllById(pairingIds);
+
+        this.pairedDevicesRepository.deleteAllInBatch(pairedDevices);
+        pairedDevices.forEach(dev -> {
+            this.deviceHandles.invalidate(dev.getId());
+            this.eventBus.publish(HubEventType.PAIRING_REMOVED, dev.getDriverId(), dev.getDeviceId(), dev.getId(), null);
+        });
+
+        return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    }
+
+    @PostMapping(path = "/bulk/commands", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<UUID, List<DeviceCommand>>> readDeviceCommands(@RequestBody List<UUID> pairingIds) {
+        return ResponseEntity.ok(this.mapHandles(pairingIds, this.mapper::toDeviceCommands));
+    }
+
+    @PostMapping(path = "/bulk/layouts", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<UUID, RemoteLayout>> readDeviceRemoteLayouts(@RequestBody List<UUID> pairingIds) {
+        return ResponseEntity.ok(this.mapHandles(pairingIds, this.mapper::toRemoteLayout));
+    }
+
+    private <T> Map<UUID, T> mapHandles(List<UUID> pairingIds, Function<DeviceHandle, T> mapping) {
+        Map<UUID, T> result = new LinkedHashMap<>();
+
+        // pairings that don't exist or whose driver isn't loaded are left out
+        this.pairedDevicesRepository.findAllById(pairingIds).forEach(dev -> {
+            DeviceHandle handle = this.deviceHandles.getHandle(dev);
+
+            if (handle != null) {
+                result.put(dev.getId(), mapping.apply(handle));
+            }
+        });
+
+        return result;
+    }
+
+    private Map<String, Object> project(PairedDevice pairedDevice, List<String> fields) {
+        Map<String, Object> projected = new LinkedHashMap<>();
+
+        for (String field : fields) {
+            switch (field) {
+                case "pairingId" -> projected.put(field, pairedDevice.getId());
+                case "driverId" -> projected.put(field, pairedDevice.getDriverId());
+                case "deviceId" -> projected.put(field, pairedDevice.getDeviceId());
+                case "deviceName" -> projected.put(field, pairedDevice.getDeviceName());
+                default -> throw new IllegalArgumentException(field);
+            }
+        }
+
+        return projected;
+    }
+
+    private static String key(String driverId, String deviceId) {
+        return driverId + "/" + deviceId;
+    }
+}
@@ -16,6 +16,9 @@
 package com.github.berrycontrol.config;
 
 import com.github.berrycontrol.drivermanager.DriverManager;
+import com.github.berrycontrol.drivermanager.DriverWatchdog;
+import com.github.berrycontrol.events.HubEventBus;
+import com.github.berrycontrol.tracing.Tracer;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -26,7 +29,16 @@ import java.nio.file.Path;
 public class DriverManagerConfiguration {
 
     @Bean
-    public DriverManager driverManager(@Value("${berry-control-hub.plugin-path}") String pluginPath) {
-        return new DriverManager(Path.of(pluginPath));
+    public DriverManager driverManager(
+        @Value("${berry-control-hub.plugin-path}") String pluginPath,
+        @Value("${berry-control-hub.watchdog.reload-classloader:false}") boolean reloadStuckDrivers,
+        HubEventBus eventBus,
+        Tracer tracer,
+        DriverWatchdog watchdog) {
+
+        DriverManager driverManager = new DriverManager(eventBus, tracer, watchdog, Path.of(pluginPath));
+
+        driverManager.setReloadStuckDrivers(reloadStuckDrivers);
+        return driverManager;
     }
 }
@@ -0,0 +1,126 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.config;
+
+import liquibase.integration.spring.SpringLiquibase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+
+/**
+ * Skips the Liquibase run on startup when the changelog files are unchanged since the last successful run.
+ * The checksum of the changelog files is kept in the {@code schema_checksum} table.
+ */
+@Component
+@ConditionalOnProperty(name = "berry-control-hub.fast-start.skip-unchanged-schema", havingValue = "true")
+public class SchemaChecksumGuard implements BeanPostProcessor {
+    private final static Logger logger = LoggerFactory.getLogger(SchemaChecksumGuard.class);
+
+    private static final String CHANGELOG_PATTERN = "classpath*:liquibase/**/*.xml";
+    private static final String CHECKSUM_ID = "liquibase";
+
+    private String changelogChecksum;
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        if (bean instanceof SpringLiquibase liquibase && liquibase.isShouldRun()) {
+            this.changelogChecksum = computeChangelogChecksum();
+
+            if (this.changelogChecksum != null
+                && this.changelogChecksum.equals(readStoredChecksum(liquibase.getDataSource()))) {
+
+                logger.info("Liquibase changelog is unchanged (checksum {}), skipping schema update.", this.changelogChecksum);
+                liquibase.setShouldRun(false);
+            }
+        }
+
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (bean instanceof SpringLiquibase liquibase && liquibase.isShouldRun() && this.changelogChecksum != null) {
+            storeChecksum(liquibase.getDataSource(), this.changelogChecksum);
+        }
+
+        return bean;
+    }
+
+    private String computeChangelogChecksum() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            Resource[] resources = new PathMatchingResourcePatternResolver().getResources(CHANGELOG_PATTERN);
+
+            Arrays.sort(resources, Comparator.comparing(Resource::getDescription));
+            for (Resource resource : resources) {
+                try (InputStream in = resource.getInputStream()) {
+                    digest.update(in.readAllBytes());
+                }
+            }
+
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            logger.warn("Unable to compute the Liquibase changelog checksum, schema update will run.", e);
+            return null;
+        }
+    }
+
+    private String readStoredChecksum(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("SELECT checksum FROM schema_checksum WHERE id = ?")) {
+
+            stmt.setString(1, CHECKSUM_ID);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        } catch (SQLException e) {
+            // the table doesn't exist before the first Liquibase run
+            logger.debug("No stored Liquibase changelog checksum found.", e);
+            return null;
+        }
+    }
+
+    private void storeChecksum(DataSource dataSource, String checksum) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement stmt = connection.prepareStatement(
+                 "MERGE INTO schema_checksum (id, checksum) KEY (id) VALUES (?, ?)")) {
+
+            stmt.setString(1, CHECKSUM_ID);
+            stmt.setString(2, checksum);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            logger.warn("Unable to store the Liquibase changelog checksum.", e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.config;
+
+import com.github.berrycontrol.drivermanager.DriverManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aot.AotDetector;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures how long the hub takes from JVM start until it is ready and until the first command has been
+ * executed. The log lines have a fixed format, so that startup runs can be compared with each other.
+ */
+@Component
+public class StartupTimer {
+    private final static Logger logger = LoggerFactory.getLogger(StartupTimer.class);
+
+    private final DriverManager driverManager;
+    private final Environment environment;
+    private final ObjectProvider<VirtualThreadPinningMonitor> pinningMonitor;
+    private final boolean warmUpDrivers;
+
+    private volatile boolean firstCommandExecuted = false;
+
+    public StartupTimer(
+        DriverManager driverManager,
+        Environment environment,
+        ObjectProvider<VirtualThreadPinningMonitor> pinningMonitor,
+        @Value("${berry-control-hub.fast-start.warm-up-drivers:false}") boolean warmUpDrivers) {
+
+        this.driverManager = driverManager;
+        this.environment = environment;
+        this.pinningMonitor = pinningMonitor;
+        this.warmUpDrivers = warmUpDrivers;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void applicationReady() {
+        logger.info("Startup benchmark: time-to-ready = {} ms", millisSinceJvmStart());
+
+        // AOT evaluates the conditions at build time, the monitor exists only in builds for virtual threads
+        boolean virtualThreads = this.environment.getProperty("spring.threads.virtual.enabled", Boolean.class, false);
+        if (AotDetector.useGeneratedArtifacts() && virtualThreads != (this.pinningMonitor.getIfAvailable() != null)) {
+            logger.warn("This fast-start build was built with virtual threads {}, spring.threads.virtual.enabled "
+                    + "is ignored; rebuild it with -Dfast-start.virtual-threads={}.",
+                virtualThreads ? "disabled" : "enabled", virtualThreads);
+        }
+
+        if (this.warmUpDrivers) {
+            Thread warmUp = new Thread(() -> {
+                this.driverManager.getDrivers();
+                logger.info("Startup benchmark: time-to-drivers-loaded = {} ms", millisSinceJvmStart());
+            }, "driver-warm-up");
+
+            warmUp.setDaemon(true);
+            warmUp.start();
+        }
+    }
+
+    public void commandExecuted() {
+        if (!this.firstCommandExecuted) {
+            synchronized (this) {
+                if (!this.firstCommandExecuted) {
+                    this.firstCommandExecuted = true;
+                    logger.info("Startup benchmark: time-to-first-command = {} ms", millisSinceJvmStart());
+                }
+            }
+        }
+    }
+
+    private static long millisSinceJvmStart() {
+        return System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.config;
+
+import com.github.berrycontrol.driver.api.BerryHubDeviceDriverDescriptor;
+import com.github.berrycontrol.drivermanager.DriverManager;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Reports virtual threads that get pinned to their carrier thread, which usually happens when a driver plugin
+ * blocks inside a synchronized block. Pinning events are read from JFR and attributed to the driver whose
+ * classes are found on the stack.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor {
+    private final static Logger logger = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int MAX_LOGGED_FRAMES = 16;
+
+    private final DriverManager driverManager;
+    private final Duration threshold;
+    private final Map<String, LongAdder> pinningCounts = new ConcurrentHashMap<>();
+
+    private RecordingStream recordingStream;
+
+    public VirtualThreadPinningMonitor(
+        DriverManager driverManager,
+        @Value("${berry-control-hub.virtual-threads.pinning-threshold:20ms}") Duration threshold) {
+
+        this.driverManager = driverManager;
+        this.threshold = threshold;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startMonitoring() {
+        if (Runtime.version().feature() < 21) {
+            logger.warn("Virtual threads are enabled, but they require Java 21 or later; running on Java {}.",
+                Runtime.version().feature());
+            return;
+        }
+
+        this.recordingStream = new RecordingStream();
+        this.recordingStream.enable(PINNED_EVENT).withThreshold(this.threshold).withStackTrace();
+        this.recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+        this.recordingStream.startAsync();
+
+        logger.info("Monitoring virtual thread pinning longer than {} ms.", this.threshold.toMillis());
+    }
+
+    @PreDestroy
+    public void stopMonitoring() {
+        if (this.recordingStream != null) {
+            this.recordingStream.close();
+        }
+    }
+
+    public Map<String, Long> getPinningCounts() {
+        return this.pinningCounts
+            .entrySet()
+            .stream()
+            .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().sum()));
+    }
+
+    private void onPinned(RecordedEvent event) {
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        List<RecordedFrame> frames = stackTrace != null ? stackTrace.getFrames() : List.of();
+        String culprit = this.findCulprit(frames);
+
+        this.pinningCounts.computeIfAbsent(culprit, c -> new LongAdder()).increment();
+
+        logger.warn("Virtual thread pinned to its carrier for {} ms by >{}<:\n{}",
+            event.getDuration().toMillis(),
+            culprit,
+            frames
+                .stream()
+                .limit(MAX_LOGGED_FRAMES)
+                .map(this::formatFrame)
+                .collect(Collectors.joining("\n")));
+    }
+
+    private String findCulprit(List<RecordedFrame> frames) {
+        for (RecordedFrame frame : frames) {
+            String typeName = frame.getMethod().getType().getName();
+
+            for (BerryHubDeviceDriverDescriptor driver : this.driverManager.getDrivers()) {
+                if (typeName.startsWith(driver.getClass().getPackageName() + ".")) {
+                    return driver.getDisplayName();
+                }
+            }
+        }
+
+        return frames.isEmpty() ? "unknown" : frames.get(0).getMethod().getType().getName();
+    }
+
+    private String formatFrame(RecordedFrame frame) {
+        return String.format("\tat %s.%s(line %d)",
+            frame.getMethod().getType().getName(), frame.getMethod().getName(), frame.getLineNumber());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.drivermanager;
+
+import com.github.berrycontrol.driver.api.BerryHubDeviceCommand;
+import com.github.berrycontrol.driver.api.BerryHubDeviceDriver;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A paired device that has been resolved to its driver instance, together with a lookup table of the
+ * commands the driver instance provides.
+ * <p>
+ * A driver instance used to be created for every call; now one instance serves all requests for a pairing.
+ * Drivers are not required to be thread-safe, hence the calls into the instance are serialized per handle,
+ * so that concurrent requests for the same device behave like consecutive ones. A lock is used instead of
+ * {@code synchronized}, so that a waiting virtual thread doesn't pin its carrier thread. Waiting for the lock
+ * can be interrupted, e.g. by the {@link DriverWatchdog} when a previous call never returns; the waiting
+ * call then fails with a {@link DeviceCallInterruptedException}.
+ */
+@SuppressWarnings("rawtypes")
+public class DeviceHandle {
+    private final UUID pairingId;
+    private final String driverId;
+    private final String deviceId;
+    private final BerryHubDeviceDriver driver;
+    private final Map<Integer, BerryHubDeviceCommand> commands;
+    private final int generation;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    DeviceHandle(UUID pairingId, String driverId, String deviceId, BerryHubDeviceDriver driver, int generation) {
+        this.pairingId = pairingId;
+        this.driverId = driverId;
+        this.deviceId = deviceId;
+        this.driver = driver;
+        this.generation = generation;
+        this.commands = new LinkedHashMap<>();
+
+        for (Object cmd : driver.getCommands()) {
+            BerryHubDeviceCommand command = (BerryHubDeviceCommand) cmd;
+            this.commands.put(command.getId(), command);
+        }
+    }
+
+    public UUID getPairingId() {
+        return this.pairingId;
+    }
+
+    public String getDriverId() {
+        return this.driverId;
+    }
+
+    public String getDeviceId() {
+        return this.deviceId;
+    }
+
+    public BerryHubDeviceDriver getDriver() {
+        return this.driver;
+    }
+
+    public Integer getRemoteLayoutWidth() {
+        this.acquireLock();
+        try {
+            return this.driver.getRemoteLayoutWidth();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public Integer getRemoteLayoutHeight() {
+        this.acquireLock();
+        try {
+            return this.driver.getRemoteLayoutHeight();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public int[][] getRemoteLayout() {
+        this.acquireLock();
+        try {
+            return this.driver.getRemoteLayout();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public Collection<BerryHubDeviceCommand> getCommands() {
+        return this.commands.values();
+    }
+
+    /**
+     * @return the command with the given ID or {@code null} if the driver doesn't provide it
+     */
+    public BerryHubDeviceCommand getCommand(Integer commandId) {
+        return this.commands.get(commandId);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void execute(BerryHubDeviceCommand command) {
+        this.acquireLock();
+        try {
+            this.driver.execute(command);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void acquireLock() {
+        try {
+            this.lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeviceCallInterruptedException(this.deviceId, e);
+        }
+    }
+
+    int getGeneration() {
+        return this.generation;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.drivermanager;
+
+import com.github.berrycontrol.driver.api.BerryHubDeviceDriver;
+import com.github.berrycontrol.persistence.model.PairedDevice;
+import com.github.berrycontrol.persistence.repository.PairedDevicesRepository;
+import com.github.berrycontrol.tracing.TraceSpan;
+import com.github.berrycontrol.tracing.Tracer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves pairing IDs to {@link DeviceHandle}s. A handle is created on first use of a pairing and reused
+ * afterwards, so that executing a command neither hits the database nor creates a new driver instance.
+ * Handles become stale when the drivers are reloaded, the pairing is removed or a call into the driver
+ * got stuck.
+ */
+@Component
+public class DeviceHandleRegistry {
+    private final static Logger logger = LoggerFactory.getLogger(DeviceHandleRegistry.class);
+
+    private final DriverManager driverManager;
+    private final PairedDevicesRepository pairedDevicesRepository;
+    private final Tracer tracer;
+    private final Map<UUID, DeviceHandle> handles = new ConcurrentHashMap<>();
+
+    public DeviceHandleRegistry(
+        DriverManager driverManager,
+        PairedDevicesRepository pairedDevicesRepository,
+        Tracer tracer,
+        DriverWatchdog watchdog) {
+
+        this.driverManager = driverManager;
+        this.pairedDevicesRepository = pairedDevicesRepository;
+        this.tracer = tracer;
+
+        // the instances of a quarantined driver are recreated on their next use
+        watchdog.addDriverRecycleListener(this::invalidateDriver);
+    }
+
+    /**
+     * @return the handle of the paired device or {@code null} if there is no such pairing or its driver
+     *         isn't loaded
+     */
+    public DeviceHandle getHandle(UUID pairingId) {
+        try (TraceSpan span = this.tracer.startSpan("DeviceHandleRegistry.getHandle")) {
+            DeviceHandle handle = this.handles.get(pairingId);
+
+            if (handle != null && handle.getGeneration() == this.driverManager.getGeneration()) {
+                return handle;
+            }
+
+            Optional<PairedDevice> pairedDevice;
+            try (TraceSpan findSpan = this.tracer.startSpan("PairedDevicesRepository.findById")) {
+                pairedDevice = this.pairedDevicesRepository.findById(pairingId);
+            }
+
+            return pairedDevice.map(this::createHandle).orElse(null);
+        }
+    }
+
+    public DeviceHandle getHandle(PairedDevice pairedDevice) {
+        DeviceHandle handle = this.handles.get(pairedDevice.getId());
+
+        if (handle != null && handle.getGeneration() == this.driverManager.getGeneration()) {
+            return handle;
+        }
+
+        return this.createHandle(pairedDevice);
+    }
+
+    public void invalidate(UUID pairingId) {
+        this.handles.remove(pairingId);
+    }
+
+    public void invalidateDriver(String driverId) {
+        this.handles.values().removeIf(handle -> handle.getDriverId().equals(driverId));
+    }
+
+    private DeviceHandle createHandle(PairedDevice pairedDevice) {
+        int generation = this.driverManager.getGeneration();
+        Optional<BerryHubDeviceDriver> driver =
+            this.driverManager.getDriverInstance(pairedDevice.getDriverId(), pairedDevice.getDeviceId());
+
+        if (driver.isEmpty()) {
+            logger.warn("Driver >{}< of pairing >{}< is not loaded.", pairedDevice.getDriverId(), pairedDevice.getId());
+            this.handles.remove(pairedDevice.getId());
+            return null;
+        }
+
+        DeviceHandle handle = new DeviceHandle(
+            pairedDevice.getId(), pairedDevice.getDriverId(), pairedDevice.getDeviceId(), driver.get(), generation);
+
+        this.handles.put(pairedDevice.getId(), handle);
+        return handle;
+    }
+}
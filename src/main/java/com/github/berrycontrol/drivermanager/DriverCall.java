@@ -0,0 +1,122 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.drivermanager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-flight call into a driver, tracked by the {@link DriverWatchdog}; it's ended by closing it. Calls are
+ * slots of a fixed table that are reused, so tracking a call neither allocates nor depends on the calling
+ * thread, which may be a short-lived virtual thread.
+ */
+public final class DriverCall implements AutoCloseable {
+    static final DriverCall NOOP = new DriverCall(null);
+
+    static final int IDLE = 0;
+    static final int STARTING = 1;
+    static final int ACTIVE = 2;
+    // the watchdog is reporting the call as stuck
+    static final int STUCK = 3;
+    // the watchdog has counted the call as stuck
+    static final int REPORTED = 4;
+    static final int FINISHING = 5;
+
+    private final DriverWatchdog watchdog;
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    // incremented for every call that takes the slot, to detect reuse while the watchdog reads its fields
+    private volatile int sequence;
+    private volatile Thread thread;
+    private volatile DriverWatchdog.DriverStatistics statistics;
+    private volatile String operation;
+    private volatile int generation;
+    private volatile long startNanos;
+
+    DriverCall(DriverWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+
+    boolean claim() {
+        return this.state.compareAndSet(IDLE, STARTING);
+    }
+
+    void start(DriverWatchdog.DriverStatistics statistics, String operation) {
+        this.sequence++;
+        this.thread = Thread.currentThread();
+        this.statistics = statistics;
+        this.operation = operation;
+        this.generation = statistics.getGeneration();
+        this.startNanos = System.nanoTime();
+        this.state.set(ACTIVE);
+    }
+
+    boolean markStuck() {
+        return this.state.compareAndSet(ACTIVE, STUCK);
+    }
+
+    void unmarkStuck() {
+        this.state.compareAndSet(STUCK, ACTIVE);
+    }
+
+    /**
+     * @return {@code false} if the call has returned while it was reported
+     */
+    boolean markReported() {
+        return this.state.compareAndSet(STUCK, REPORTED);
+    }
+
+    @Override
+    public void close() {
+        if (this.watchdog == null) {
+            return;
+        }
+
+        int previousState = this.state.getAndSet(FINISHING);
+
+        // a call that returns while it's being reported isn't counted as stuck, the watchdog undoes its report
+        this.watchdog.callFinished(this, previousState == REPORTED);
+        this.thread = null;
+        this.statistics = null;
+        this.state.set(IDLE);
+    }
+
+    boolean isActive() {
+        return this.state.get() == ACTIVE;
+    }
+
+    int getSequence() {
+        return this.sequence;
+    }
+
+    Thread getThread() {
+        return this.thread;
+    }
+
+    DriverWatchdog.DriverStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    String getOperation() {
+        return this.operation;
+    }
+
+    int getGeneration() {
+        return this.generation;
+    }
+
+    long getStartNanos() {
+        return this.startNanos;
+    }
+}
@@ -19,6 +19,10 @@ import com.github.berrycontrol.driver.api.BerryHubDeviceDriver;
 import com.github.berrycontrol.driver.api.BerryHubDeviceDriverDescriptor;
 import com.github.berrycontrol.driver.api.BerryHubDeviceDriverException;
 import com.github.berrycontrol.driver.api.BerryHubDeviceInfo;
+import com.github.berrycontrol.events.HubEventBus;
+import com.github.berrycontrol.events.HubEventType;
+import com.github.berrycontrol.tracing.TraceSpan;
+import com.github.berrycontrol.tracing.Tracer;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,64 +43,191 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.stream.Collectors;
 
 @Component
 public class DriverManager {
     private final static Logger logger = LoggerFactory.getLogger(DriverManager.class);
 
+    private final HubEventBus eventBus;
+
+    private final Tracer tracer;
+
+    private final DriverWatchdog watchdog;
+
+    private boolean reloadStuckDrivers = false;
+
     private List<Path> driverPaths = new ArrayList<>();
 
-    private List<BerryHubDeviceDriverDescriptor> drivers = new ArrayList<>();
+    private volatile List<BerryHubDeviceDriverDescriptor> drivers = new ArrayList<>();
+
+    private volatile Map<UUID, BerryHubDeviceDriverDescriptor> driversById = Map.of();
+
+    private volatile int generation = 0;
+
+    private final Map<UUID, String> driverVersions = new ConcurrentHashMap<>();
+
+    private final Map<UUID, Path> driverJars = new ConcurrentHashMap<>();
+
+    private final Map<String, Boolean> deviceReachability = new ConcurrentHashMap<>();
+
+    public DriverManager(HubEventBus eventBus, Tracer tracer, DriverWatchdog watchdog, Path ...pluginPaths) {
+        this.eventBus = eventBus;
+        this.tracer = tracer;
+        this.watchdog = watchdog;
 
-    public DriverManager(Path ...pluginPaths) {
         if (pluginPaths != null) {
             this.driverPaths.addAll(Arrays.asList(pluginPaths));
         }
+
+        this.watchdog.addDriverRecycleListener(this::onStuckDriver);
+    }
+
+    /**
+     * If enabled, a driver that is quarantined because of stuck calls is reloaded from its JAR with a new class
+     * loader; otherwise only its driver instances are recreated.
+     */
+    public void setReloadStuckDrivers(boolean reloadStuckDrivers) {
+        this.reloadStuckDrivers = reloadStuckDrivers;
     }
 
     public List<BerryHubDeviceDriverDescriptor> getDrivers() {
         if (drivers.isEmpty()) {
-            this.loadDrivers();
+            synchronized (this) {
+                if (drivers.isEmpty()) {
+                    this.loadDrivers();
+                }
+            }
         }
 
         return drivers;
     }
 
     public Optional<BerryHubDeviceDriverDescriptor> getDriver(UUID driverId) {
-        return this.getDrivers()
-            .stream()
-            .filter(drv -> drv.getDriverId().equals(driverId))
-            .findFirst();
+        try (TraceSpan span = this.tracer.startSpan("DriverManager.getDriver").attribute("driver.id", driverId)) {
+            this.getDrivers();
+
+            return Optional.ofNullable(this.driversById.get(driverId));
+        }
+    }
+
+    /**
+     * The generation is incremented whenever the drivers are (re)loaded, so that callers that hold on to
+     * driver instances can detect that they are stale.
+     */
+    public int getGeneration() {
+        return this.generation;
+    }
+
+    /**
+     * @return the version from the {@code Driver-Version} manifest attribute of the driver's JAR
+     */
+    public Optional<String> getDriverVersion(UUID driverId) {
+        return Optional.ofNullable(this.driverVersions.get(driverId));
     }
 
     public List<BerryHubDeviceInfo> getDeviceInfos(BerryHubDeviceDriverDescriptor driver) throws BerryHubDeviceDriverException {
-        return driver.getDevices();
+        try (TraceSpan span = this.tracer.startSpan("getDevices").attribute("driver.id", driver.getDriverId());
+             DriverCall call = this.watchdog.enter(driver.getDriverId().toString(), "getDevices")) {
+
+            return driver.getDevices();
+        }
     }
 
     public Optional<BerryHubDeviceInfo> getDeviceInfo(BerryHubDeviceDriverDescriptor driver, String deviceId) {
         logger.info("Loading device info from driver >{}< for deviceid = {}", driver.getDisplayName(), deviceId);
 
         try {
-            return this
+            Optional<BerryHubDeviceInfo> deviceInfo = this
                 .getDeviceInfos(driver)
                 .stream()
                 .filter(dev -> dev.getDeviceId().equals(deviceId))
                 .findFirst();
+
+            this.updateReachability(driver, deviceId, deviceInfo.isPresent());
+            return deviceInfo;
         } catch (BerryHubDeviceDriverException e) {
             logger.error("Error while getting info for device >{}< from driver >{}<",
                 deviceId, driver.getDisplayName(), e);
+            this.updateReachability(driver, deviceId, false);
             return Optional.empty();
         }
     }
 
-    public void loadDrivers() {
+    private void updateReachability(BerryHubDeviceDriverDescriptor driver, String deviceId, boolean reachable) {
+        String driverId = driver.getDriverId().toString();
+        Boolean previous = this.deviceReachability.put(driverId + "/" + deviceId, reachable);
+
+        if (previous == null || previous != reachable) {
+            this.eventBus.publish(
+                reachable ? HubEventType.DEVICE_REACHABLE : HubEventType.DEVICE_UNREACHABLE, driverId, deviceId);
+        }
+    }
+
+    public synchronized void loadDrivers() {
         List<Path> jarPaths = getJarPaths(this.driverPaths);
+        Set<UUID> previousDriverIds = driversById.keySet();
 
+        driverVersions.clear();
+        driverJars.clear();
         drivers = loadDriverJars(jarPaths);
+        indexDrivers();
+        generation++;
+
+        previousDriverIds
+            .stream()
+            .filter(driverId -> !driversById.containsKey(driverId))
+            .forEach(driverId -> this.eventBus.publish(HubEventType.DRIVER_UNLOADED, driverId.toString(), null));
+        driversById
+            .keySet()
+            .stream()
+            .filter(driverId -> !previousDriverIds.contains(driverId))
+            .forEach(driverId -> this.eventBus.publish(HubEventType.DRIVER_LOADED, driverId.toString(), null));
+    }
+
+    private void indexDrivers() {
+        driversById = drivers
+            .stream()
+            .collect(Collectors.toUnmodifiableMap(
+                BerryHubDeviceDriverDescriptor::getDriverId, drv -> drv, (first, second) -> first));
+    }
+
+    private void onStuckDriver(String driverId) {
+        if (this.reloadStuckDrivers) {
+            this.reloadDriver(UUID.fromString(driverId));
+        }
+    }
+
+    private synchronized void reloadDriver(UUID driverId) {
+        Path path = driverJars.get(driverId);
+
+        if (path == null) {
+            return;
+        }
+
+        logger.warn("Reloading driver >{}< from >{}< with a new class loader.", driverId, path);
+
+        try {
+            // the old class loader isn't closed, the stuck call may still need to load classes from it
+            loadDriver(loadManifest(path), path).ifPresent(reloaded -> {
+                List<BerryHubDeviceDriverDescriptor> reloadedDrivers = new ArrayList<>(drivers);
+
+                reloadedDrivers.replaceAll(drv -> drv.getDriverId().equals(driverId) ? reloaded : drv);
+                drivers = reloadedDrivers;
+                indexDrivers();
+
+                this.eventBus.publish(HubEventType.DRIVER_UNLOADED, driverId.toString(), null);
+                this.eventBus.publish(HubEventType.DRIVER_LOADED, driverId.toString(), null);
+            });
+        } catch (Exception ex) {
+            logger.error("Error while reloading driver >{}< from >{}<", driverId, path, ex);
+        }
     }
 
     private List<BerryHubDeviceDriverDescriptor> loadDriverJars(List<Path> jarPaths) {
@@ -134,6 +265,12 @@ public class DriverManager {
                 Class<?> classToLoad = Class.forName(driverClass, true, child);
                 Constructor<?> constructor =  classToLoad.getConstructor(null);
                 BerryHubDeviceDriverDescriptor drv = (BerryHubDeviceDriverDescriptor) constructor.newInstance();
+                if (drv != null) {
+                    driverJars.put(drv.getDriverId(), path);
+                    if (driverVersion != null) {
+                        driverVersions.put(drv.getDriverId(), driverVersion);
+                    }
+                }
                 return Optional.ofNullable(drv);
             } catch (MalformedURLException e) {
                 // TODO
@@ -193,8 +330,20 @@ public class DriverManager {
     }
 
     public Optional<BerryHubDeviceDriver> getDriverInstance(String driverId, String deviceId) {
-        Optional<BerryHubDeviceDriverDescriptor> driver = this.getDriver(UUID.fromString(driverId));
+        try (TraceSpan span = this.tracer
+            .startSpan("DriverManager.getDriverInstance")
+            .attribute("driver.id", driverId)
+            .attribute("device.id", deviceId)) {
 
-        return driver.map(descriptor -> descriptor.createDriverInstance(deviceId));
+            Optional<BerryHubDeviceDriverDescriptor> driver = this.getDriver(UUID.fromString(driverId));
+
+            return driver.map(descriptor -> {
+                try (TraceSpan createSpan = this.tracer.startSpan("createDriverInstance");
+                     DriverCall call = this.watchdog.enter(driverId, "createDriverInstance")) {
+
+                    return descriptor.createDriverInstance(deviceId);
+                }
+            });
+        }
     }
 }
@@ -0,0 +1,389 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.drivermanager;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Tracks every in-flight call into a driver and flags calls that take longer than the threshold of their
+ * driver; the stack of a stuck call is logged. When a driver has too many stuck calls, it is quarantined:
+ * further calls into it are rejected with a {@link DriverQuarantinedException} instead of tying up more
+ * threads, and the registered listeners recycle its instances. Stuck calls belong to the generation of
+ * instances they were made on, so once the instances have been recycled and the quarantine has expired,
+ * the driver is available again, even if the abandoned calls never return.
+ * <p>
+ * Thresholds are configured per driver ID with {@code berry-control-hub.watchdog.thresholds.<driverId>}.
+ * Calls are tracked in a table of {@code max-tracked-calls} slots; calls beyond that are not tracked.
+ * The watchdog runs on its own thread, so that it keeps working while other scheduled tasks are blocked.
+ */
+@Component
+public class DriverWatchdog {
+    private final static Logger logger = LoggerFactory.getLogger(DriverWatchdog.class);
+
+    private final Environment environment;
+    private final boolean enabled;
+    private final Duration defaultThreshold;
+    private final int maxStuckCalls;
+    private final long quarantineNanos;
+    private final boolean interruptStuckCalls;
+    private final long checkIntervalMillis;
+
+    private final DriverCall[] calls;
+    private final AtomicInteger nextCall = new AtomicInteger();
+    private final Map<String, DriverStatistics> statistics = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> recycleListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean untrackedCallsReported = false;
+    private ScheduledExecutorService scheduler;
+
+    public DriverWatchdog(
+        Environment environment,
+        @Value("${berry-control-hub.watchdog.enabled:true}") boolean enabled,
+        @Value("${berry-control-hub.watchdog.default-threshold:10s}") Duration defaultThreshold,
+        @Value("${berry-control-hub.watchdog.max-stuck-calls:2}") int maxStuckCalls,
+        @Value("${berry-control-hub.watchdog.quarantine-duration:30s}") Duration quarantineDuration,
+        @Value("${berry-control-hub.watchdog.interrupt-stuck-calls:false}") boolean interruptStuckCalls,
+        @Value("${berry-control-hub.watchdog.check-interval:1000}") long checkIntervalMillis,
+        @Value("${berry-control-hub.watchdog.max-tracked-calls:256}") int maxTrackedCalls) {
+
+        this.environment = environment;
+        this.enabled = enabled;
+        this.defaultThreshold = defaultThreshold;
+        this.maxStuckCalls = maxStuckCalls;
+        this.quarantineNanos = quarantineDuration.toNanos();
+        this.interruptStuckCalls = interruptStuckCalls;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.calls = new DriverCall[maxTrackedCalls];
+
+        for (int i = 0; i < this.calls.length; i++) {
+            this.calls[i] = new DriverCall(this);
+        }
+    }
+
+    /**
+     * Registers a listener that is called with the driver ID whenever a driver is quarantined and its
+     * instances have to be recycled.
+     */
+    public void addDriverRecycleListener(Consumer<String> listener) {
+        this.recycleListeners.add(listener);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startWatching() {
+        if (!this.enabled) {
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "driver-watchdog");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(
+            this::checkCalls, this.checkIntervalMillis, this.checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stopWatching() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Starts tracking a call into the driver on the current thread; close the returned call when the driver
+     * returns.
+     *
+     * @throws DriverQuarantinedException if the driver is quarantined
+     */
+    public DriverCall enter(String driverId, String operation) {
+        if (!this.enabled) {
+            return DriverCall.NOOP;
+        }
+
+        DriverStatistics driverStatistics = this.statistics.computeIfAbsent(driverId, DriverStatistics::new);
+
+        if (driverStatistics.quarantined) {
+            throw new DriverQuarantinedException(driverId);
+        }
+
+        DriverCall call = this.claimCall();
+
+        if (call == null) {
+            if (!this.untrackedCallsReported) {
+                this.untrackedCallsReported = true;
+                logger.warn("More than {} calls into drivers are in flight, further calls are not tracked.",
+                    this.calls.length);
+            }
+            return DriverCall.NOOP;
+        }
+
+        driverStatistics.inFlightCalls.incrementAndGet();
+        call.start(driverStatistics, operation);
+
+        return call;
+    }
+
+    public List<DriverWatchdogStatistics> getStatistics() {
+        return this.statistics
+            .values()
+            .stream()
+            .map(stats -> DriverWatchdogStatistics
+                .builder()
+                .driverId(stats.driverId)
+                .thresholdMillis(this.getThresholdNanos(stats) / 1_000_000L)
+                .inFlightCalls(stats.inFlightCalls.get())
+                .stuckCalls(stats.stuckCalls.get())
+                .totalStuckCalls(stats.totalStuckCalls.sum())
+                .quarantined(stats.quarantined)
+                .generation(stats.generation)
+                .recycles(stats.recycles.sum())
+                .lastStuckOperation(stats.lastStuckOperation)
+                .lastStuckAt(stats.lastStuckAt)
+                .lastStuckStackTrace(stats.lastStuckStackTrace)
+                .build())
+            .toList();
+    }
+
+    void checkCalls() {
+        try {
+            this.checkCalls(System.nanoTime());
+        } catch (RuntimeException e) {
+            // an exception would cancel the scheduled check
+            logger.error("Error while checking the calls into drivers.", e);
+        }
+    }
+
+    void checkCalls(long now) {
+        for (DriverCall call : this.calls) {
+            int sequence = call.getSequence();
+
+            if (!call.isActive()) {
+                continue;
+            }
+
+            // the call may return at any time, so its fields are read once; the sequence tells whether they
+            // still belong to the call that is marked as stuck
+            DriverStatistics stats = call.getStatistics();
+            Thread thread = call.getThread();
+            String operation = call.getOperation();
+            int generation = call.getGeneration();
+            long elapsedNanos = now - call.getStartNanos();
+
+            if (stats == null || elapsedNanos <= this.getThresholdNanos(stats) || !call.markStuck()) {
+                continue;
+            }
+
+            if (call.getSequence() != sequence) {
+                call.unmarkStuck();
+                continue;
+            }
+
+            this.onStuckCall(call, stats, thread, operation, generation, elapsedNanos, now);
+        }
+
+        this.statistics.values().forEach(stats -> {
+            if (stats.quarantined && now - stats.quarantinedUntilNanos >= 0) {
+                if (stats.currentStuckCalls.get() >= this.maxStuckCalls) {
+                    // recycling failed, the stuck calls still hold the current instances
+                    this.quarantine(stats, now);
+                } else {
+                    stats.quarantined = false;
+                    logger.info("Driver >{}< is no longer quarantined.", stats.driverId);
+                }
+            }
+        });
+    }
+
+    void callFinished(DriverCall call, boolean stuck) {
+        DriverStatistics stats = call.getStatistics();
+
+        stats.inFlightCalls.decrementAndGet();
+
+        if (stuck) {
+            synchronized (stats) {
+                stats.stuckCalls.decrementAndGet();
+                if (call.getGeneration() == stats.generation) {
+                    stats.currentStuckCalls.decrementAndGet();
+                }
+            }
+
+            logger.info("Stuck call >{}< of driver >{}< has returned after {} ms.",
+                call.getOperation(),
+                stats.driverId,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - call.getStartNanos()));
+
+            if (this.interruptStuckCalls) {
+                // clear the interrupt that may have been raised by the watchdog
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private DriverCall claimCall() {
+        int start = this.nextCall.getAndIncrement();
+
+        for (int i = 0; i < this.calls.length; i++) {
+            DriverCall call = this.calls[Math.floorMod(start + i, this.calls.length)];
+
+            if (call.claim()) {
+                return call;
+            }
+        }
+
+        return null;
+    }
+
+    private void onStuckCall(
+        DriverCall call,
+        DriverStatistics stats,
+        Thread thread,
+        String operation,
+        int generation,
+        long elapsedNanos,
+        long now) {
+
+        List<String> stackTrace = thread == null ? List.of() : this.captureStackTrace(thread);
+        int currentStuckCalls;
+
+        synchronized (stats) {
+            stats.stuckCalls.incrementAndGet();
+            currentStuckCalls = generation == stats.generation
+                ? stats.currentStuckCalls.incrementAndGet()
+                : stats.currentStuckCalls.get();
+        }
+        stats.totalStuckCalls.increment();
+        stats.lastStuckOperation = operation;
+        stats.lastStuckAt = Instant.now();
+        stats.lastStuckStackTrace = stackTrace;
+
+        logger.warn("Call >{}< of driver >{}< on thread >{}< is stuck for {} ms:\n\tat {}",
+            operation,
+            stats.driverId,
+            thread != null ? thread.getName() : "",
+            TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+            String.join("\n\tat ", stackTrace));
+
+        if (!call.markReported()) {
+            // the call has returned while it was reported, close() didn't count it as stuck
+            synchronized (stats) {
+                stats.stuckCalls.decrementAndGet();
+                if (generation == stats.generation) {
+                    stats.currentStuckCalls.decrementAndGet();
+                }
+            }
+
+            logger.info("Stuck call >{}< of driver >{}< has returned.", operation, stats.driverId);
+            return;
+        }
+
+        if (this.interruptStuckCalls && thread != null) {
+            thread.interrupt();
+        }
+
+        if (currentStuckCalls >= this.maxStuckCalls && !stats.quarantined) {
+            this.quarantine(stats, now);
+        }
+    }
+
+    private void quarantine(DriverStatistics stats, long now) {
+        stats.quarantinedUntilNanos = now + this.quarantineNanos;
+        stats.quarantined = true;
+
+        logger.warn("Driver >{}< has {} stuck calls, it is quarantined for {} ms and its instances are recycled.",
+            stats.driverId, stats.currentStuckCalls.get(), TimeUnit.NANOSECONDS.toMillis(this.quarantineNanos));
+
+        for (Consumer<String> listener : this.recycleListeners) {
+            try {
+                listener.accept(stats.driverId);
+            } catch (RuntimeException e) {
+                logger.error("Error while recycling stuck driver >{}<.", stats.driverId, e);
+                return;
+            }
+        }
+
+        // the stuck calls hold the recycled instances, they no longer count against the driver
+        synchronized (stats) {
+            stats.generation++;
+            stats.currentStuckCalls.set(0);
+        }
+        stats.recycles.increment();
+    }
+
+    List<String> captureStackTrace(Thread thread) {
+        return Arrays.stream(thread.getStackTrace()).map(StackTraceElement::toString).toList();
+    }
+
+    private long getThresholdNanos(DriverStatistics stats) {
+        if (stats.thresholdNanos < 0) {
+            stats.thresholdNanos = this.environment
+                .getProperty(
+                    "berry-control-hub.watchdog.thresholds." + stats.driverId, Duration.class, this.defaultThreshold)
+                .toNanos();
+        }
+
+        return stats.thresholdNanos;
+    }
+
+    static class DriverStatistics {
+        private final String driverId;
+        private final AtomicInteger inFlightCalls = new AtomicInteger();
+        private final AtomicInteger stuckCalls = new AtomicInteger();
+        private final AtomicInteger currentStuckCalls = new AtomicInteger();
+        private final LongAdder totalStuckCalls = new LongAdder();
+        private final LongAdder recycles = new LongAdder();
+        private volatile int generation = 0;
+        private volatile boolean quarantined = false;
+        private volatile long quarantinedUntilNanos;
+        private volatile long thresholdNanos = -1;
+        private volatile String lastStuckOperation;
+        private volatile Instant lastStuckAt;
+        private volatile List<String> lastStuckStackTrace;
+
+        DriverStatistics(String driverId) {
+            this.driverId = driverId;
+        }
+
+        String getDriverId() {
+            return this.driverId;
+        }
+
+        int getGeneration() {
+            return this.generation;
+        }
+    }
+}
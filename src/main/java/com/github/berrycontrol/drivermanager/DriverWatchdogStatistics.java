@@ -0,0 +1,41 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.drivermanager;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Instant;
+import java.util.List;
+
+@Getter
+@Builder
+@AllArgsConstructor
+public class DriverWatchdogStatistics {
+    private final String driverId;
+    private final long thresholdMillis;
+    private final int inFlightCalls;
+    private final int stuckCalls;
+    private final long totalStuckCalls;
+    private final boolean quarantined;
+    /** incremented whenever the instances of the driver are recycled */
+    private final int generation;
+    private final long recycles;
+    private final String lastStuckOperation;
+    private final Instant lastStuckAt;
+    private final List<String> lastStuckStackTrace;
+}
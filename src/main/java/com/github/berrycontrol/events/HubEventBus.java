@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.events;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hub-wide event bus. Publishing is a no-op while nobody is subscribed, otherwise every event is offered to
+ * the bounded buffer of each subscription. Subscriptions that can't keep up are dropped instead of slowing
+ * down the publisher.
+ */
+@Component
+public class HubEventBus {
+    private final static Logger logger = LoggerFactory.getLogger(HubEventBus.class);
+
+    private final int bufferSize;
+    private final Set<HubEventSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public HubEventBus(@Value("${berry-control-hub.events.buffer-size:64}") int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public HubEventSubscription subscribe() {
+        HubEventSubscription subscription = new HubEventSubscription(this.bufferSize);
+
+        this.subscriptions.add(subscription);
+        logger.debug("Event subscription {} opened, {} subscriptions active.", subscription.getId(), this.subscriptions.size());
+
+        return subscription;
+    }
+
+    public void unsubscribe(HubEventSubscription subscription) {
+        if (this.subscriptions.remove(subscription)) {
+            logger.debug("Event subscription {} closed, {} subscriptions active.", subscription.getId(), this.subscriptions.size());
+        }
+
+        subscription.close();
+    }
+
+    public boolean hasSubscribers() {
+        return !this.subscriptions.isEmpty();
+    }
+
+    public void publish(HubEventType type, String driverId, String deviceId) {
+        this.publish(type, driverId, deviceId, null, null);
+    }
+
+    public void publish(HubEventType type, String driverId, String deviceId, UUID pairingId, Integer commandId) {
+        if (this.subscriptions.isEmpty()) {
+            return;
+        }
+
+        HubEvent event = HubEvent
+            .builder()
+            .sequence(this.sequence.incrementAndGet())
+            .timestamp(System.currentTimeMillis())
+            .type(type)
+            .driverId(driverId)
+            .deviceId(deviceId)
+            .pairingId(pairingId)
+            .commandId(commandId)
+            .build();
+
+        for (HubEventSubscription subscription : this.subscriptions) {
+            if (!subscription.offer(event)) {
+                logger.warn("Dropping slow event subscription {}, its buffer of {} events is full.",
+                    subscription.getId(), this.bufferSize);
+                this.unsubscribe(subscription);
+            }
+        }
+    }
+}
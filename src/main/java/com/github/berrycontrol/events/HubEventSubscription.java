@@ -0,0 +1,59 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.events;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A single consumer of the {@link HubEventBus}. Events are buffered in a bounded queue until the consumer
+ * drains them; a subscription whose buffer overflows is closed by the bus.
+ */
+public class HubEventSubscription {
+    private final UUID id = UUID.randomUUID();
+    private final ArrayBlockingQueue<HubEvent> buffer;
+    private volatile boolean closed = false;
+
+    HubEventSubscription(int bufferSize) {
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    public UUID getId() {
+        return this.id;
+    }
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    public boolean hasEvents() {
+        return !this.buffer.isEmpty();
+    }
+
+    public int drainTo(Collection<? super HubEvent> events) {
+        return this.buffer.drainTo(events);
+    }
+
+    boolean offer(HubEvent event) {
+        return !this.closed && this.buffer.offer(event);
+    }
+
+    void close() {
+        this.closed = true;
+        this.buffer.clear();
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.icons;
+
+import com.github.berrycontrol.drivermanager.DriverManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache for command icons. Icons that drivers provide as data URIs are extracted once per
+ * driver version, stored under the SHA-256 of their content and replaced by a reference to the icons
+ * endpoint. The icon data is kept in a bounded in-memory LRU cache in front of a bounded directory on disk.
+ * <p>
+ * The disk cache is evicted in least recently used order, too; the access order survives restarts as the
+ * modification time of the files. Icons that are referenced by a command of a loaded driver version are
+ * never evicted, since remotes may request them at any time.
+ */
+@Component
+public class IconCache {
+    private final static Logger logger = LoggerFactory.getLogger(IconCache.class);
+
+    public static final String ICONS_PATH = "/icons/";
+
+    private static final Pattern ICON_NAME = Pattern.compile("[0-9a-f]{64}\\.[a-z0-9-]+");
+    // the access time of a file is updated at most once per minute
+    private static final long ACCESS_TIME_RESOLUTION_MILLIS = 60_000;
+
+    private final DriverManager driverManager;
+    private final Path cacheDirectory;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+
+    private final Map<IconKey, String> iconReferences = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, byte[]> memoryCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes = 0;
+    // a ReentrantLock rather than synchronized, since the disk cache is evicted on request threads that may be
+    // virtual threads, which must not be pinned while deleting files
+    private final ReentrantLock diskLock = new ReentrantLock();
+    private final LinkedHashMap<String, DiskEntry> diskCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes = 0;
+
+    public IconCache(
+        DriverManager driverManager,
+        @Value("${berry-control-hub.icon-cache.path}") String cacheDirectory,
+        @Value("${berry-control-hub.icon-cache.max-memory-bytes:4194304}") long maxMemoryBytes,
+        @Value("${berry-control-hub.icon-cache.max-disk-bytes:67108864}") long maxDiskBytes) throws IOException {
+
+        this.driverManager = driverManager;
+        this.cacheDirectory = Path.of(cacheDirectory);
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+
+        Files.createDirectories(this.cacheDirectory);
+        this.loadDiskCache();
+    }
+
+    /**
+     * @return a reference to the cached icon if the icon is a data URI, otherwise the icon as it is
+     */
+    public String toIconReference(UUID driverId, Integer commandId, String icon) {
+        if (icon == null || !icon.startsWith("data:")) {
+            return icon;
+        }
+
+        IconKey key = new IconKey(driverId, this.driverManager.getDriverVersion(driverId).orElse(""), commandId);
+        String reference = this.iconReferences.get(key);
+
+        if (reference == null) {
+            reference = this.extract(icon).orElse(icon);
+            this.iconReferences.put(key, reference);
+        }
+
+        return reference;
+    }
+
+    public static boolean isValidName(String name) {
+        return ICON_NAME.matcher(name).matches();
+    }
+
+    /**
+     * @return the icon from the in-memory cache or {@code null} if it isn't cached in memory
+     */
+    public byte[] getFromMemory(String name) {
+        byte[] data;
+
+        synchronized (this.memoryCache) {
+            data = this.memoryCache.get(name);
+        }
+
+        if (data != null) {
+            this.touch(name);
+        }
+
+        return data;
+    }
+
+    /**
+     * @return the file of the icon in the disk cache
+     */
+    public Optional<Path> getFile(String name) {
+        Path file = this.cacheDirectory.resolve(name);
+
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+
+        this.touch(name);
+        return Optional.of(file);
+    }
+
+    public void putIntoMemory(String name, byte[] data) {
+        synchronized (this.memoryCache) {
+            byte[] previous = this.memoryCache.put(name, data);
+
+            this.memoryBytes += data.length - (previous != null ? previous.length : 0);
+
+            Iterator<Map.Entry<String, byte[]>> eldest = this.memoryCache.entrySet().iterator();
+            while (this.memoryBytes > this.maxMemoryBytes && eldest.hasNext()) {
+                this.memoryBytes -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private Optional<String> extract(String dataUri) {
+        // data:[<mediatype>][;base64],<data>
+        int comma = dataUri.indexOf(',');
+
+        if (comma < 0) {
+            return Optional.empty();
+        }
+
+        String header = dataUri.substring("data:".length(), comma);
+        boolean base64 = header.endsWith(";base64");
+        String mediaType = (base64 ? header.substring(0, header.length() - ";base64".length()) : header).split(";")[0];
+
+        try {
+            byte[] data = base64
+                ? Base64.getDecoder().decode(dataUri.substring(comma + 1))
+                : dataUri.substring(comma + 1).getBytes(StandardCharsets.UTF_8);
+            String name = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data))
+                + "." + toExtension(mediaType);
+
+            this.store(name, data);
+            return Optional.of(ICONS_PATH + name);
+        } catch (IllegalArgumentException | IOException | NoSuchAlgorithmException e) {
+            logger.warn("Unable to extract icon, sending it inline.", e);
+            return Optional.empty();
+        }
+    }
+
+    private void store(String name, byte[] data) throws IOException {
+        Path file = this.cacheDirectory.resolve(name);
+
+        if (!Files.exists(file)) {
+            Path tempFile = Files.createTempFile(this.cacheDirectory, "icon", ".tmp");
+
+            Files.write(tempFile, data);
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        this.diskLock.lock();
+        try {
+            DiskEntry previous = this.diskCache.put(name, new DiskEntry(data.length, System.currentTimeMillis()));
+
+            this.diskBytes += data.length - (previous != null ? previous.size : 0);
+            this.evictFromDisk(name);
+        } finally {
+            this.diskLock.unlock();
+        }
+
+        this.putIntoMemory(name, data);
+    }
+
+    /**
+     * Marks the icon as used; must not be called while holding the disk lock.
+     */
+    private void touch(String name) {
+        long now = System.currentTimeMillis();
+        boolean persist = false;
+
+        this.diskLock.lock();
+        try {
+            DiskEntry entry = this.diskCache.get(name);
+
+            if (entry != null && now - entry.accessedMillis >= ACCESS_TIME_RESOLUTION_MILLIS) {
+                entry.accessedMillis = now;
+                persist = true;
+            }
+        } finally {
+            this.diskLock.unlock();
+        }
+
+        if (persist) {
+            try {
+                Files.setLastModifiedTime(this.cacheDirectory.resolve(name), FileTime.fromMillis(now));
+            } catch (IOException e) {
+                logger.debug("Unable to update the access time of icon >{}<.", name, e);
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used icons that aren't referenced, except for the icon that is being stored;
+     * must be called while holding the disk lock.
+     */
+    private void evictFromDisk(String storedName) throws IOException {
+        if (this.diskBytes <= this.maxDiskBytes) {
+            return;
+        }
+
+        Set<String> referenced = this.referencedNames();
+        Iterator<Map.Entry<String, DiskEntry>> eldest = this.diskCache.entrySet().iterator();
+
+        while (this.diskBytes > this.maxDiskBytes && eldest.hasNext()) {
+            Map.Entry<String, DiskEntry> entry = eldest.next();
+
+            if (!entry.getKey().equals(storedName) && !referenced.contains(entry.getKey())) {
+                Files.deleteIfExists(this.cacheDirectory.resolve(entry.getKey()));
+                this.diskBytes -= entry.getValue().size;
+                eldest.remove();
+            }
+        }
+
+        if (this.diskBytes > this.maxDiskBytes) {
+            logger.warn("The icons of the loaded drivers take {} bytes, more than the {} bytes of the disk cache.",
+                this.diskBytes, this.maxDiskBytes);
+        }
+    }
+
+    /**
+     * @return the names of the icons that are referenced by the loaded driver versions; references of driver
+     *         versions that are no longer loaded are dropped
+     */
+    private Set<String> referencedNames() {
+        this.iconReferences.keySet().removeIf(
+            key -> !key.version().equals(this.driverManager.getDriverVersion(key.driverId()).orElse("")));
+
+        return this.iconReferences
+            .values()
+            .stream()
+            .filter(reference -> reference.startsWith(ICONS_PATH))
+            .map(reference -> reference.substring(ICONS_PATH.length()))
+            .collect(Collectors.toSet());
+    }
+
+    private void loadDiskCache() throws IOException {
+        Map<String, DiskEntry> entries = new LinkedHashMap<>();
+
+        try (Stream<Path> paths = Files.list(this.cacheDirectory)) {
+            List<Path> files = paths
+                .filter(path -> isValidName(path.getFileName().toString()))
+                .sorted(Comparator.comparing(IconCache::lastModified))
+                .toList();
+
+            for (Path file : files) {
+                entries.put(file.getFileName().toString(), new DiskEntry(Files.size(file), lastModified(file)));
+            }
+        }
+
+        this.diskLock.lock();
+        try {
+            for (Map.Entry<String, DiskEntry> entry : entries.entrySet()) {
+                this.diskCache.put(entry.getKey(), entry.getValue());
+                this.diskBytes += entry.getValue().size;
+            }
+            this.evictFromDisk(null);
+        } finally {
+            this.diskLock.unlock();
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String toExtension(String mediaType) {
+        int slash = mediaType.indexOf('/');
+        String subtype = slash >= 0 ? mediaType.substring(slash + 1) : "";
+
+        String extension = switch (subtype) {
+            case "svg+xml" -> "svg";
+            case "jpeg" -> "jpg";
+            default -> subtype.toLowerCase().replaceAll("[^a-z0-9-]", "");
+        };
+
+        return extension.isEmpty() ? "bin" : extension;
+    }
+
+    private record IconKey(UUID driverId, String version, Integer commandId) {
+    }
+
+    private static class DiskEntry {
+        private final long size;
+        private long accessedMillis;
+
+        DiskEntry(long size, long accessedMillis) {
+            this.size = size;
+            this.accessedMillis = accessedMillis;
+        }
+    }
+}
@@ -17,11 +17,30 @@
 package com.github.berrycontrol.persistence.repository;
 
 import com.github.berrycontrol.persistence.model.PairedDevice;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 public interface PairedDevicesRepository extends JpaRepository<PairedDevice, UUID> {
     Optional<PairedDevice> findByDriverIdAndDeviceId(String driverId, String deviceId);
+
+    Page<PairedDevice> findByDriverId(String driverId, Pageable pageable);
+
+    /**
+     * Returns the pairings whose driver ID is one of the given driver IDs and whose device ID is one of the
+     * given device IDs; callers match the exact (driverId, deviceId) pairs themselves.
+     */
+    List<PairedDevice> findByDriverIdInAndDeviceIdIn(Collection<String> driverIds, Collection<String> deviceIds);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "256"))
+    Stream<PairedDevice> streamAllBy();
 }
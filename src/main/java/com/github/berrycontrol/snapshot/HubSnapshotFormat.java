@@ -0,0 +1,43 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.snapshot;
+
+/**
+ * Constants of the binary hub snapshot format. A snapshot is a GZIP compressed stream that starts with
+ * {@link #MAGIC} and {@link #VERSION}, followed by records. Each record is a tag byte, the length of its
+ * payload as int and the payload itself; readers parse a record only from its payload and skip records with
+ * unknown tags, so that newer snapshots can add record types and append fields to existing ones.
+ * <p>
+ * The stream ends with a {@link #TAG_END} record, which is only written after a complete export. Its payload
+ * is the number of records before it and the CRC32 of all bytes before it, including its own tag and length.
+ */
+final class HubSnapshotFormat {
+    static final int MAGIC = 0x42434853; // "BCHS"
+    static final short VERSION = 1;
+
+    /** upper bound of a record payload, protects readers against corrupt lengths */
+    static final int MAX_RECORD_LENGTH = 1024 * 1024;
+
+    /** record count (long), CRC32 (long) */
+    static final byte TAG_END = 0;
+    /** driver ID (2 longs), display name (UTF), driver version (UTF, empty if unknown) */
+    static final byte TAG_DRIVER = 1;
+    /** pairing ID (2 longs), driver ID (2 longs), device ID (UTF), device name (UTF) */
+    static final byte TAG_PAIRED_DEVICE = 2;
+
+    private HubSnapshotFormat() {
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.snapshot;
+
+import com.github.berrycontrol.persistence.model.PairedDevice;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a hub snapshot record by record, see {@link HubSnapshotFormat}, and hands the records to a
+ * {@link Handler}. Every record is read completely before it is parsed, fields appended by newer versions are
+ * ignored. A snapshot that is truncated or doesn't match the record count and checksum of its end record is
+ * rejected with an {@link IOException}; records before the defect have already been handed to the handler.
+ */
+public class HubSnapshotReader implements Closeable {
+
+    public interface Handler {
+        void driver(UUID driverId, String displayName, String version) throws IOException;
+
+        void pairedDevice(PairedDevice pairedDevice) throws IOException;
+    }
+
+    private final SnapshotInputStream gzip;
+    private final CheckedInputStream checked;
+    private final DataInputStream in;
+    private byte[] recordBuffer = new byte[256];
+
+    public HubSnapshotReader(InputStream inputStream) throws IOException {
+        this.gzip = new SnapshotInputStream(inputStream);
+        this.checked = new CheckedInputStream(this.gzip, new CRC32());
+        this.in = new DataInputStream(this.checked);
+
+        try {
+            if (this.in.readInt() != HubSnapshotFormat.MAGIC) {
+                throw new IOException("Not a hub snapshot.");
+            }
+
+            short version = this.in.readShort();
+            if (version < 1 || version > HubSnapshotFormat.VERSION) {
+                throw new IOException(String.format("Unsupported hub snapshot version %d.", version));
+            }
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    public void read(Handler handler) throws IOException {
+        long recordCount = 0;
+
+        try {
+            while (true) {
+                byte tag = this.in.readByte();
+                int length = this.in.readInt();
+
+                if (length < 0 || length > HubSnapshotFormat.MAX_RECORD_LENGTH) {
+                    throw new IOException(String.format("Invalid hub snapshot record length %d.", length));
+                }
+
+                if (tag == HubSnapshotFormat.TAG_END) {
+                    this.verifyEnd(length, recordCount);
+                    return;
+                }
+
+                switch (tag) {
+                    case HubSnapshotFormat.TAG_DRIVER -> {
+                        DataInputStream record = this.readRecord(length);
+
+                        handler.driver(readUuid(record), record.readUTF(), emptyToNull(record.readUTF()));
+                    }
+                    case HubSnapshotFormat.TAG_PAIRED_DEVICE -> {
+                        DataInputStream record = this.readRecord(length);
+
+                        handler.pairedDevice(
+                            PairedDevice
+                                .builder()
+                                .id(readUuid(record))
+                                .driverId(readUuid(record).toString())
+                                .deviceId(record.readUTF())
+                                .deviceName(record.readUTF())
+                                .build());
+                    }
+                    default -> this.in.skipNBytes(length);
+                }
+
+                recordCount++;
+            }
+        } catch (EOFException e) {
+            throw new IOException("Hub snapshot is truncated or corrupt.", e);
+        }
+    }
+
+    /**
+     * Releases the decompressor; the underlying input stream is left open.
+     */
+    @Override
+    public void close() {
+        this.gzip.release();
+    }
+
+    private void verifyEnd(int length, long recordCount) throws IOException {
+        long checksum = this.checked.getChecksum().getValue();
+        DataInputStream record = this.readRecord(length);
+
+        if (record.readLong() != recordCount) {
+            throw new IOException("Hub snapshot is incomplete, the record count doesn't match.");
+        }
+        if (record.readLong() != checksum) {
+            throw new IOException("Hub snapshot is corrupt, the checksum doesn't match.");
+        }
+    }
+
+    private DataInputStream readRecord(int length) throws IOException {
+        if (this.recordBuffer.length < length) {
+            this.recordBuffer = new byte[Math.min(Math.max(length, 2 * this.recordBuffer.length), HubSnapshotFormat.MAX_RECORD_LENGTH)];
+        }
+
+        this.in.readFully(this.recordBuffer, 0, length);
+        return new DataInputStream(new ByteArrayInputStream(this.recordBuffer, 0, length));
+    }
+
+    private static UUID readUuid(DataInputStream record) throws IOException {
+        return new UUID(record.readLong(), record.readLong());
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static class SnapshotInputStream extends GZIPInputStream {
+        SnapshotInputStream(InputStream inputStream) throws IOException {
+            super(inputStream, 8192);
+        }
+
+        void release() {
+            this.inf.end();
+        }
+    }
+}
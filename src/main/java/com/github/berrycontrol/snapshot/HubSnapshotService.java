@@ -0,0 +1,279 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.snapshot;
+
+import com.github.berrycontrol.driver.api.BerryHubDeviceDriverDescriptor;
+import com.github.berrycontrol.drivermanager.DeviceHandleRegistry;
+import com.github.berrycontrol.drivermanager.DriverManager;
+import com.github.berrycontrol.events.HubEventBus;
+import com.github.berrycontrol.events.HubEventType;
+import com.github.berrycontrol.persistence.model.PairedDevice;
+import com.github.berrycontrol.persistence.repository.PairedDevicesRepository;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Exports and imports the state of the hub as binary snapshot, so that a replacement hub can be provisioned
+ * without pairing every device again.
+ */
+@Service
+public class HubSnapshotService {
+    private final static Logger logger = LoggerFactory.getLogger(HubSnapshotService.class);
+
+    private static final int IMPORT_BATCH_SIZE = 500;
+
+    private final DriverManager driverManager;
+    private final DeviceHandleRegistry deviceHandles;
+    private final PairedDevicesRepository pairedDevicesRepository;
+    private final EntityManager entityManager;
+    private final HubEventBus eventBus;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    public HubSnapshotService(
+        DriverManager driverManager,
+        DeviceHandleRegistry deviceHandles,
+        PairedDevicesRepository pairedDevicesRepository,
+        EntityManager entityManager,
+        HubEventBus eventBus,
+        PlatformTransactionManager transactionManager) {
+
+        this.driverManager = driverManager;
+        this.deviceHandles = deviceHandles;
+        this.pairedDevicesRepository = pairedDevicesRepository;
+        this.entityManager = entityManager;
+        this.eventBus = eventBus;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Streams the snapshot to the given output stream; the paired devices are read with a database cursor,
+     * hence they are never loaded into memory all at once.
+     */
+    public void exportSnapshot(OutputStream outputStream) throws IOException {
+        try (HubSnapshotWriter writer = new HubSnapshotWriter(outputStream)) {
+            for (BerryHubDeviceDriverDescriptor driver : this.driverManager.getDrivers()) {
+                writer.writeDriver(
+                    driver.getDriverId(),
+                    driver.getDisplayName(),
+                    this.driverManager.getDriverVersion(driver.getDriverId()).orElse(null));
+            }
+
+            this.readOnlyTransactionTemplate.executeWithoutResult(status -> {
+                try (Stream<PairedDevice> pairedDevices = this.pairedDevicesRepository.streamAllBy()) {
+                    Iterator<PairedDevice> iterator = pairedDevices.iterator();
+
+                    while (iterator.hasNext()) {
+                        PairedDevice pairedDevice = iterator.next();
+
+                        writer.writePairedDevice(pairedDevice);
+                        this.entityManager.detach(pairedDevice);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            writer.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Imports a snapshot. The snapshot is spooled to a temporary file and verified completely before anything
+     * is stored, so that a truncated or corrupt snapshot doesn't leave a partial import behind. Paired devices
+     * are stored in batches of {@value #IMPORT_BATCH_SIZE}, each in its own transaction, and the driver
+     * instances of a batch are created in parallel once it is committed. Pairings whose ID or whose driver and
+     * device already exist are skipped.
+     */
+    public SnapshotImportResult importSnapshot(InputStream inputStream) throws IOException {
+        Path spooled = Files.createTempFile("berry-control-hub", ".snapshot");
+        ExecutorService warmUpExecutor = null;
+
+        try {
+            Files.copy(inputStream, spooled, StandardCopyOption.REPLACE_EXISTING);
+            try (InputStream in = Files.newInputStream(spooled); HubSnapshotReader reader = new HubSnapshotReader(in)) {
+                reader.read(new Verification());
+            }
+
+            warmUpExecutor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+            Import snapshotImport = new Import(warmUpExecutor);
+
+            try (InputStream in = Files.newInputStream(spooled); HubSnapshotReader reader = new HubSnapshotReader(in)) {
+                reader.read(snapshotImport);
+            }
+            return snapshotImport.finish();
+        } finally {
+            if (warmUpExecutor != null) {
+                warmUpExecutor.shutdownNow();
+            }
+            Files.deleteIfExists(spooled);
+        }
+    }
+
+    private static class Verification implements HubSnapshotReader.Handler {
+        @Override
+        public void driver(UUID driverId, String displayName, String version) {
+        }
+
+        @Override
+        public void pairedDevice(PairedDevice pairedDevice) {
+        }
+    }
+
+    private static String key(PairedDevice pairedDevice) {
+        return pairedDevice.getDriverId() + "/" + pairedDevice.getDeviceId();
+    }
+
+    private class Import implements HubSnapshotReader.Handler {
+        private final ExecutorService warmUpExecutor;
+        private final List<PairedDevice> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        private final List<Future<Boolean>> warmUps = new ArrayList<>();
+        private final List<String> warnings = new ArrayList<>();
+        private int imported = 0;
+        private int skipped = 0;
+
+        Import(ExecutorService warmUpExecutor) {
+            this.warmUpExecutor = warmUpExecutor;
+        }
+
+        @Override
+        public void driver(UUID driverId, String displayName, String version) {
+            Optional<BerryHubDeviceDriverDescriptor> driver = driverManager.getDriver(driverId);
+
+            if (driver.isEmpty()) {
+                this.warn(String.format("Driver %s (%s, version %s) is not installed.", displayName, driverId, version));
+            } else if (version != null && !version.equals(driverManager.getDriverVersion(driverId).orElse(null))) {
+                this.warn(String.format("Driver %s (%s) is installed in version %s, the snapshot has version %s.",
+                    displayName, driverId, driverManager.getDriverVersion(driverId).orElse("unknown"), version));
+            }
+        }
+
+        @Override
+        public void pairedDevice(PairedDevice pairedDevice) {
+            this.batch.add(pairedDevice);
+
+            if (this.batch.size() >= IMPORT_BATCH_SIZE) {
+                this.storeBatch();
+            }
+        }
+
+        SnapshotImportResult finish() {
+            this.storeBatch();
+
+            int warmed = 0;
+            for (Future<Boolean> warmUp : this.warmUps) {
+                try {
+                    if (warmUp.get()) {
+                        warmed++;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    logger.error("Error while creating a driver instance for an imported pairing.", e.getCause());
+                }
+            }
+
+            logger.info("Imported {} paired devices from snapshot, skipped {}, warmed {} driver instances.",
+                this.imported, this.skipped, warmed);
+
+            return SnapshotImportResult
+                .builder()
+                .pairedDevicesImported(this.imported)
+                .pairedDevicesSkipped(this.skipped)
+                .driverInstancesWarmed(warmed)
+                .warnings(this.warnings)
+                .build();
+        }
+
+        private void storeBatch() {
+            if (this.batch.isEmpty()) {
+                return;
+            }
+
+            List<PairedDevice> stored = transactionTemplate.execute(status -> {
+                Set<UUID> existingIds = pairedDevicesRepository
+                    .findAllById(this.batch.stream().map(PairedDevice::getId).toList())
+                    .stream()
+                    .map(PairedDevice::getId)
+                    .collect(Collectors.toSet());
+                Set<String> existingKeys = pairedDevicesRepository
+                    .findByDriverIdInAndDeviceIdIn(
+                        this.batch.stream().map(PairedDevice::getDriverId).collect(Collectors.toSet()),
+                        this.batch.stream().map(PairedDevice::getDeviceId).collect(Collectors.toSet()))
+                    .stream()
+                    .map(HubSnapshotService::key)
+                    .collect(Collectors.toSet());
+                // like the bulk import, a driver's device is paired at most once, whatever its pairing ID
+                List<PairedDevice> newDevices = this.batch
+                    .stream()
+                    .filter(dev -> existingIds.add(dev.getId()))
+                    .filter(dev -> existingKeys.add(key(dev)))
+                    .toList();
+
+                newDevices.forEach(entityManager::persist);
+                entityManager.flush();
+                entityManager.clear();
+
+                return newDevices;
+            });
+
+            this.imported += stored.size();
+            this.skipped += this.batch.size() - stored.size();
+            this.batch.clear();
+
+            for (PairedDevice pairedDevice : stored) {
+                eventBus.publish(HubEventType.PAIRING_ADDED,
+                    pairedDevice.getDriverId(), pairedDevice.getDeviceId(), pairedDevice.getId(), null);
+                this.warmUps.add(
+                    this.warmUpExecutor.submit(() -> deviceHandles.getHandle(pairedDevice) != null));
+            }
+        }
+
+        private void warn(String warning) {
+            logger.warn(warning);
+            this.warnings.add(warning);
+        }
+    }
+}
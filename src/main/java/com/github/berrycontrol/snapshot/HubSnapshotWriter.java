@@ -0,0 +1,113 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.snapshot;
+
+import com.github.berrycontrol.persistence.model.PairedDevice;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a hub snapshot record by record, see {@link HubSnapshotFormat}. The snapshot is only complete after
+ * {@link #finish()}; closing the writer without finishing it, e.g. because the export failed, leaves a
+ * snapshot without end record that readers reject.
+ */
+public class HubSnapshotWriter implements Closeable {
+    private final SnapshotOutputStream gzip;
+    private final CheckedOutputStream checked;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream record = new DataOutputStream(recordBuffer);
+    private long recordCount = 0;
+
+    public HubSnapshotWriter(OutputStream outputStream) throws IOException {
+        this.gzip = new SnapshotOutputStream(outputStream);
+        this.checked = new CheckedOutputStream(this.gzip, new CRC32());
+        this.out = new DataOutputStream(this.checked);
+
+        this.out.writeInt(HubSnapshotFormat.MAGIC);
+        this.out.writeShort(HubSnapshotFormat.VERSION);
+    }
+
+    public void writeDriver(UUID driverId, String displayName, String version) throws IOException {
+        writeUuid(driverId);
+        this.record.writeUTF(displayName != null ? displayName : "");
+        this.record.writeUTF(version != null ? version : "");
+        this.flushRecord(HubSnapshotFormat.TAG_DRIVER);
+    }
+
+    public void writePairedDevice(PairedDevice pairedDevice) throws IOException {
+        writeUuid(pairedDevice.getId());
+        writeUuid(UUID.fromString(pairedDevice.getDriverId()));
+        this.record.writeUTF(pairedDevice.getDeviceId());
+        this.record.writeUTF(pairedDevice.getDeviceName());
+        this.flushRecord(HubSnapshotFormat.TAG_PAIRED_DEVICE);
+    }
+
+    /**
+     * Writes the end record and finishes the GZIP stream; call this once every record has been written.
+     */
+    public void finish() throws IOException {
+        this.out.writeByte(HubSnapshotFormat.TAG_END);
+        this.out.writeInt(2 * Long.BYTES);
+
+        long checksum = this.checked.getChecksum().getValue();
+
+        this.out.writeLong(this.recordCount);
+        this.out.writeLong(checksum);
+        this.out.flush();
+        this.gzip.finish();
+    }
+
+    /**
+     * Releases the compressor; the underlying output stream is left open. If {@link #finish()} hasn't been
+     * called, the snapshot is left incomplete on purpose.
+     */
+    @Override
+    public void close() {
+        this.gzip.release();
+    }
+
+    private void writeUuid(UUID uuid) throws IOException {
+        this.record.writeLong(uuid.getMostSignificantBits());
+        this.record.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private void flushRecord(byte tag) throws IOException {
+        this.out.writeByte(tag);
+        this.out.writeInt(this.recordBuffer.size());
+        this.recordBuffer.writeTo(this.out);
+        this.recordBuffer.reset();
+        this.recordCount++;
+    }
+
+    private static class SnapshotOutputStream extends GZIPOutputStream {
+        SnapshotOutputStream(OutputStream outputStream) throws IOException {
+            super(outputStream, 8192);
+        }
+
+        void release() {
+            this.def.end();
+        }
+    }
+}
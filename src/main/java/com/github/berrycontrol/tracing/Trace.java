@@ -0,0 +1,50 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The spans of one traced request, collected on the thread that handles the request.
+ */
+class Trace {
+    private final long traceIdHigh;
+    private final long traceIdLow;
+    private final List<TraceSpan> spans = new ArrayList<>();
+    private TraceSpan current;
+
+    Trace(long traceIdHigh, long traceIdLow) {
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+    }
+
+    String getTraceId() {
+        return String.format("%016x%016x", this.traceIdHigh, this.traceIdLow);
+    }
+
+    List<TraceSpan> getSpans() {
+        return this.spans;
+    }
+
+    TraceSpan getCurrent() {
+        return this.current;
+    }
+
+    void setCurrent(TraceSpan current) {
+        this.current = current;
+    }
+}
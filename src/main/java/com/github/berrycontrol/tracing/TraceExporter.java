@@ -0,0 +1,144 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.tracing;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports sampled traces in the OTLP/JSON format, either appended as one line per trace to a file, which
+ * can be read by the OpenTelemetry collector's otlpjsonfile receiver, or posted to the OTLP/HTTP endpoint
+ * of a local collector. Exporting happens on a background thread; traces are dropped if it falls behind.
+ */
+@Component
+public class TraceExporter {
+    private final static Logger logger = LoggerFactory.getLogger(TraceExporter.class);
+
+    private static final String SERVICE_NAME = "berry-control-hub";
+
+    private final ObjectMapper objectMapper;
+    private final Path file;
+    private final URI otlpEndpoint;
+    private final HttpClient httpClient;
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1024), new ThreadPoolExecutor.DiscardPolicy());
+
+    public TraceExporter(
+        ObjectMapper objectMapper,
+        @Value("${berry-control-hub.tracing.file:}") String file,
+        @Value("${berry-control-hub.tracing.otlp-endpoint:}") String otlpEndpoint) {
+
+        this.objectMapper = objectMapper;
+        this.file = StringUtils.isEmpty(file) ? null : Path.of(file);
+        this.otlpEndpoint = StringUtils.isEmpty(otlpEndpoint) ? null : URI.create(otlpEndpoint);
+        this.httpClient = this.otlpEndpoint != null ? HttpClient.newHttpClient() : null;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    void export(Trace trace) {
+        if (this.file == null && this.otlpEndpoint == null) {
+            return;
+        }
+
+        this.executor.execute(() -> {
+            try {
+                String json = this.objectMapper.writeValueAsString(toOtlp(trace));
+
+                if (this.file != null) {
+                    Files.writeString(this.file, json + "\n", StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+                }
+                if (this.otlpEndpoint != null) {
+                    this.httpClient.sendAsync(
+                        HttpRequest
+                            .newBuilder(this.otlpEndpoint)
+                            .header("Content-Type", "application/json")
+                            .POST(HttpRequest.BodyPublishers.ofString(json))
+                            .build(),
+                        HttpResponse.BodyHandlers.discarding());
+                }
+            } catch (JsonProcessingException e) {
+                logger.error("Unable to serialize trace {}.", trace.getTraceId(), e);
+            } catch (IOException e) {
+                logger.error("Unable to write trace {} to >{}<.", trace.getTraceId(), this.file, e);
+            }
+        });
+    }
+
+    private static Map<String, Object> toOtlp(Trace trace) {
+        String traceId = trace.getTraceId();
+
+        return Map.of(
+            "resourceSpans", List.of(Map.of(
+                "resource", Map.of("attributes", List.of(attribute("service.name", SERVICE_NAME))),
+                "scopeSpans", List.of(Map.of(
+                    "scope", Map.of("name", SERVICE_NAME),
+                    "spans", trace.getSpans().stream().map(span -> toOtlp(traceId, span)).toList())))));
+    }
+
+    private static Map<String, Object> toOtlp(String traceId, TraceSpan span) {
+        return Map.of(
+            "traceId", traceId,
+            "spanId", spanId(span.getSpanId()),
+            "parentSpanId", span.getParent() != null ? spanId(span.getParent().getSpanId()) : "",
+            "name", span.getName(),
+            "kind", span.getParent() != null ? 1 : 2, // internal or server
+            "startTimeUnixNano", Long.toString(span.getStartEpochNanos()),
+            "endTimeUnixNano", Long.toString(span.getEndEpochNanos()),
+            "attributes", span
+                .getAttributes()
+                .entrySet()
+                .stream()
+                .map(attr -> attribute(attr.getKey(), attr.getValue()))
+                .toList());
+    }
+
+    private static Map<String, Object> attribute(String key, Object value) {
+        // OTLP/JSON encodes 64 bit integers as strings
+        boolean integral = value instanceof Integer || value instanceof Long;
+
+        return Map.of("key", key, "value", Map.of(integral ? "intValue" : "stringValue", value.toString()));
+    }
+
+    private static String spanId(long spanId) {
+        return String.format("%016x", spanId);
+    }
+}
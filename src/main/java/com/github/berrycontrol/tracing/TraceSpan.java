@@ -0,0 +1,109 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.tracing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed operation within a trace. Spans are started with {@link Tracer#startSpan(String)} and ended by
+ * closing them, preferably with try-with-resources.
+ */
+public class TraceSpan implements AutoCloseable {
+    static final TraceSpan NOOP = new TraceSpan(null, null, null, null, 0L);
+
+    private final Tracer tracer;
+    private final Trace trace;
+    private final TraceSpan parent;
+    private String name;
+    private final long spanId;
+    private final long startEpochNanos;
+    private final long startNanos;
+    private long endNanos;
+    private Map<String, Object> attributes;
+
+    TraceSpan(Tracer tracer, Trace trace, TraceSpan parent, String name, long spanId) {
+        this.tracer = tracer;
+        this.trace = trace;
+        this.parent = parent;
+        this.name = name;
+        this.spanId = spanId;
+        this.startEpochNanos = tracer != null ? System.currentTimeMillis() * 1_000_000L : 0L;
+        this.startNanos = tracer != null ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Renames the span, for names that are only known after the span started.
+     */
+    public TraceSpan name(String name) {
+        if (this.tracer != null) {
+            this.name = name;
+        }
+
+        return this;
+    }
+
+    public TraceSpan attribute(String key, Object value) {
+        if (this.tracer != null && value != null) {
+            if (this.attributes == null) {
+                this.attributes = new LinkedHashMap<>();
+            }
+            this.attributes.put(key, value);
+        }
+
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (this.tracer != null) {
+            this.endNanos = System.nanoTime();
+            this.tracer.end(this);
+        }
+    }
+
+    Trace getTrace() {
+        return this.trace;
+    }
+
+    TraceSpan getParent() {
+        return this.parent;
+    }
+
+    String getName() {
+        return this.name;
+    }
+
+    long getSpanId() {
+        return this.spanId;
+    }
+
+    long getStartEpochNanos() {
+        return this.startEpochNanos;
+    }
+
+    long getEndEpochNanos() {
+        return this.startEpochNanos + this.getDurationNanos();
+    }
+
+    long getDurationNanos() {
+        return this.endNanos - this.startNanos;
+    }
+
+    Map<String, Object> getAttributes() {
+        return this.attributes != null ? this.attributes : Map.of();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.tracing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Lightweight request tracer. Spans are collected per thread until the root span of a trace ends; then the
+ * trace is tail sampled: traces that took longer than the slow threshold are always exported, all others
+ * only with the configured sample rate. While tracing is disabled, spans are no-ops that don't allocate.
+ */
+@Component
+public class Tracer {
+    private final boolean enabled;
+    private final long slowThresholdNanos;
+    private final double sampleRate;
+    private final TraceExporter exporter;
+    private final ThreadLocal<Trace> currentTrace = new ThreadLocal<>();
+
+    public Tracer(
+        @Value("${berry-control-hub.tracing.enabled:false}") boolean enabled,
+        @Value("${berry-control-hub.tracing.slow-threshold:100ms}") Duration slowThreshold,
+        @Value("${berry-control-hub.tracing.sample-rate:0.01}") double sampleRate,
+        TraceExporter exporter) {
+
+        this.enabled = enabled;
+        this.slowThresholdNanos = slowThreshold.toNanos();
+        this.sampleRate = sampleRate;
+        this.exporter = exporter;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Starts a span as child of the current span of this thread, or a new trace if there is none.
+     */
+    public TraceSpan startSpan(String name) {
+        if (!this.enabled) {
+            return TraceSpan.NOOP;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Trace trace = this.currentTrace.get();
+
+        if (trace == null) {
+            trace = new Trace(random.nextLong(), random.nextLong());
+            this.currentTrace.set(trace);
+        }
+
+        TraceSpan span = new TraceSpan(this, trace, trace.getCurrent(), name, random.nextLong());
+
+        trace.setCurrent(span);
+        return span;
+    }
+
+    void end(TraceSpan span) {
+        Trace trace = span.getTrace();
+
+        trace.getSpans().add(span);
+        trace.setCurrent(span.getParent());
+
+        if (span.getParent() == null) {
+            this.currentTrace.remove();
+
+            if (span.getDurationNanos() >= this.slowThresholdNanos
+                || ThreadLocalRandom.current().nextDouble() < this.sampleRate) {
+
+                this.exporter.export(trace);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2024 Thomas Bonk <thomas@meandmymac.de>
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package com.github.berrycontrol.tracing;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+/**
+ * Starts the root span of each API request. The span is named after the matched handler pattern, like
+ * {@code GET /devices/{deviceId}}, so that requests of the same endpoint are grouped; the concrete path is
+ * kept in the {@code url.path} attribute.
+ */
+@Component
+public class TracingFilter extends OncePerRequestFilter {
+    private final Tracer tracer;
+
+    public TracingFilter(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !this.tracer.isEnabled();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+        throws ServletException, IOException {
+
+        // the handler pattern is only known after the request was dispatched
+        try (TraceSpan span = this.tracer.startSpan(request.getMethod())) {
+            span.attribute("http.method", request.getMethod()).attribute("url.path", request.getRequestURI());
+
+            try {
+                filterChain.doFilter(request, response);
+                span.attribute("http.status_code", response.getStatus());
+            } catch (ServletException | IOException | RuntimeException e) {
+                // the container sets the error status only after the exception has left the filter
+                Throwable cause = e;
+
+                if (e instanceof ServletException servletException && servletException.getRootCause() != null) {
+                    cause = servletException.getRootCause();
+                }
+
+                span
+                    .attribute("http.status_code", HttpStatus.INTERNAL_SERVER_ERROR.value())
+                    .attribute("exception.type", cause.getClass().getName())
+                    .attribute("exception.message", cause.getMessage());
+                throw e;
+            } finally {
+                Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+
+                if (pattern != null) {
+                    span.name(request.getMethod() + " " + pattern).attribute("http.route", pattern);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.berrycontrol.api;
+
+import com.github.berrycontrol.config.StartupTimer;
+import com.github.berrycontrol.driver.api.BerryHubDeviceCommand;
+import com.github.berrycontrol.driver.api.BerryHubDeviceDriver;
+import com.github.berrycontrol.drivermanager.DeviceHandleRegistry;
+import com.github.berrycontrol.drivermanager.DriverManager;
+import com.github.berrycontrol.drivermanager.DriverWatchdog;
+import com.github.berrycontrol.events.HubEventBus;
+import com.github.berrycontrol.persistence.model.PairedDevice;
+import com.github.berrycontrol.persistence.repository.PairedDevicesRepository;
+import com.github.berrycontrol.tracing.Tracer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures the bytes {@link PairedDeviceDelegate#executeDeviceCommand} allocates once the device handle has
+ * been resolved. The allocations of the (mocked) driver and of reading the Accept header from the mock request
+ * are measured separately and subtracted.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+class PairedDeviceDelegateAllocationTests {
+
+	private static final int WARM_UP_ITERATIONS = 50_000;
+	private static final int ITERATIONS = 200_000;
+	private static final long MAX_BYTES_PER_CALL = 16;
+
+	private static final String DRIVER_ID = "2b3c5b0e-8e54-4a6f-9f43-0a1f6a3e1c11";
+	private static final Integer COMMAND_ID = 7;
+
+	@Test
+	void executingCommandsAllocatesNothing() {
+		com.sun.management.ThreadMXBean threads = threadMXBean();
+		assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		BerryHubDeviceCommand command = mock(BerryHubDeviceCommand.class);
+		when(command.getId()).thenReturn(COMMAND_ID);
+		BerryHubDeviceDriver driver = mock(BerryHubDeviceDriver.class, withSettings().stubOnly());
+		doReturn(List.of(command)).when(driver).getCommands();
+
+		Tracer tracer = new Tracer(false, Duration.ofMillis(100), 0.0, null);
+		HubEventBus eventBus = new HubEventBus(64);
+		DriverWatchdog watchdog = new DriverWatchdog(
+			new MockEnvironment(), true, Duration.ofSeconds(10), 2, Duration.ofSeconds(30), false, 1000, 256);
+		DriverManager driverManager = new DriverManager(eventBus, tracer, watchdog) {
+			@Override
+			public Optional<BerryHubDeviceDriver> getDriverInstance(String driverId, String deviceId) {
+				return Optional.of(driver);
+			}
+		};
+		PairedDevicesRepository pairedDevicesRepository = mock(PairedDevicesRepository.class);
+		DeviceHandleRegistry registry =
+			new DeviceHandleRegistry(driverManager, pairedDevicesRepository, tracer, watchdog);
+		StartupTimer startupTimer =
+			new StartupTimer(driverManager, new MockEnvironment(), mock(ObjectProvider.class), false);
+		PairedDeviceDelegate delegate = new PairedDeviceDelegate(
+			registry, mock(DeviceModelMapper.class), pairedDevicesRepository, eventBus, startupTimer, watchdog);
+		UUID pairingId = UUID.randomUUID();
+
+		MockHttpServletRequest servletRequest =
+			new MockHttpServletRequest("POST", "/paired-devices/" + pairingId + "/commands/" + COMMAND_ID);
+		servletRequest.addHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+		ServletWebRequest request = new ServletWebRequest(servletRequest);
+		// the fields are injected by Spring, the request as a proxy of the current request
+		ReflectionTestUtils.setField(delegate, "request", request);
+		ReflectionTestUtils.setField(delegate, "tracer", tracer);
+
+		registry.getHandle(PairedDevice
+			.builder()
+			.id(pairingId)
+			.driverId(DRIVER_ID)
+			.deviceId("tv-1")
+			.deviceName("Living Room TV")
+			.build());
+
+		Runnable hubPath = () -> delegate.executeDeviceCommand(pairingId, COMMAND_ID);
+		Runnable outsideHub = () -> {
+			request.getHeader(HttpHeaders.ACCEPT);
+			driver.execute(command);
+		};
+
+		long hubBytes = bytesPerCall(threads, hubPath);
+		long outsideHubBytes = bytesPerCall(threads, outsideHub);
+
+		assertThat(hubBytes - outsideHubBytes).isLessThanOrEqualTo(MAX_BYTES_PER_CALL);
+	}
+
+	private static long bytesPerCall(com.sun.management.ThreadMXBean threads, Runnable path) {
+		long threadId = Thread.currentThread().getId();
+
+		for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+			path.run();
+		}
+
+		long before = threads.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < ITERATIONS; i++) {
+			path.run();
+		}
+		long after = threads.getThreadAllocatedBytes(threadId);
+
+		return (after - before) / ITERATIONS;
+	}
+
+	private static com.sun.management.ThreadMXBean threadMXBean() {
+		return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+			? threads
+			: null;
+	}
+}
@@ -0,0 +1,222 @@
+package com.github.berrycontrol.drivermanager;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DriverWatchdogTests {
+
+	private static final String DRIVER_ID = "2b3c5b0e-8e54-4a6f-9f43-0a1f6a3e1c11";
+	private static final String OTHER_DRIVER_ID = "7d0f1e2a-3c4b-4d5e-8f60-718293a4b5c6";
+
+	private static final long THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long QUARANTINE_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private final List<String> recycledDrivers = new ArrayList<>();
+
+	@Test
+	void detectsStuckCalls() {
+		DriverWatchdog watchdog = this.watchdog(2, 16);
+		DriverCall call = watchdog.enter(DRIVER_ID, "execute");
+
+		watchdog.checkCalls(System.nanoTime());
+		assertThat(this.statistics(watchdog).getStuckCalls()).isZero();
+
+		watchdog.checkCalls(System.nanoTime() + 2 * THRESHOLD_NANOS);
+
+		DriverWatchdogStatistics statistics = this.statistics(watchdog);
+		assertThat(statistics.getInFlightCalls()).isEqualTo(1);
+		assertThat(statistics.getStuckCalls()).isEqualTo(1);
+		assertThat(statistics.getTotalStuckCalls()).isEqualTo(1);
+		assertThat(statistics.getLastStuckOperation()).isEqualTo("execute");
+		assertThat(statistics.getLastStuckStackTrace()).isNotEmpty();
+		assertThat(statistics.isQuarantined()).isFalse();
+
+		call.close();
+
+		statistics = this.statistics(watchdog);
+		assertThat(statistics.getInFlightCalls()).isZero();
+		assertThat(statistics.getStuckCalls()).isZero();
+		assertThat(statistics.getTotalStuckCalls()).isEqualTo(1);
+	}
+
+	@Test
+	void quarantinesDriverWithTooManyStuckCalls() {
+		DriverWatchdog watchdog = this.watchdog(2, 16);
+
+		watchdog.enter(DRIVER_ID, "execute");
+		watchdog.enter(DRIVER_ID, "execute");
+		watchdog.checkCalls(System.nanoTime() + 2 * THRESHOLD_NANOS);
+
+		assertThat(this.statistics(watchdog).isQuarantined()).isTrue();
+		assertThat(this.recycledDrivers).containsExactly(DRIVER_ID);
+		assertThatThrownBy(() -> watchdog.enter(DRIVER_ID, "execute")).isInstanceOf(DriverQuarantinedException.class);
+
+		// other drivers are not affected
+		watchdog.enter(OTHER_DRIVER_ID, "execute").close();
+	}
+
+	@Test
+	void recoversAfterRecyclingEvenIfStuckCallsNeverReturn() {
+		DriverWatchdog watchdog = this.watchdog(2, 16);
+		long start = System.nanoTime();
+
+		watchdog.enter(DRIVER_ID, "execute");
+		watchdog.enter(DRIVER_ID, "execute");
+		watchdog.checkCalls(start + 2 * THRESHOLD_NANOS);
+		assertThat(this.statistics(watchdog).isQuarantined()).isTrue();
+
+		watchdog.checkCalls(start + 2 * THRESHOLD_NANOS + QUARANTINE_NANOS);
+
+		DriverWatchdogStatistics statistics = this.statistics(watchdog);
+		assertThat(statistics.isQuarantined()).isFalse();
+		assertThat(statistics.getGeneration()).isEqualTo(1);
+		assertThat(statistics.getRecycles()).isEqualTo(1);
+		// the abandoned calls are still stuck, but they don't count against the recycled instances
+		assertThat(statistics.getStuckCalls()).isEqualTo(2);
+
+		DriverCall call = watchdog.enter(DRIVER_ID, "execute");
+
+		watchdog.checkCalls(System.nanoTime() + 2 * THRESHOLD_NANOS);
+		assertThat(this.statistics(watchdog).isQuarantined()).isFalse();
+		call.close();
+	}
+
+	@Test
+	void staysQuarantinedWhileRecyclingFails() {
+		DriverWatchdog watchdog = this.watchdog(1, 16);
+		long start = System.nanoTime();
+
+		watchdog.addDriverRecycleListener(driverId -> {
+			throw new IllegalStateException("driver can't be recycled");
+		});
+		watchdog.enter(DRIVER_ID, "execute");
+		watchdog.checkCalls(start + 2 * THRESHOLD_NANOS);
+		watchdog.checkCalls(start + 2 * THRESHOLD_NANOS + QUARANTINE_NANOS);
+
+		DriverWatchdogStatistics statistics = this.statistics(watchdog);
+		assertThat(statistics.isQuarantined()).isTrue();
+		assertThat(statistics.getRecycles()).isZero();
+		assertThatThrownBy(() -> watchdog.enter(DRIVER_ID, "execute")).isInstanceOf(DriverQuarantinedException.class);
+	}
+
+	@Test
+	void reusesCallSlots() {
+		DriverWatchdog watchdog = this.watchdog(2, 1);
+		DriverCall first = watchdog.enter(DRIVER_ID, "execute");
+
+		// the only slot is taken, the next call isn't tracked
+		assertThat(watchdog.enter(DRIVER_ID, "execute")).isSameAs(DriverCall.NOOP);
+
+		first.close();
+		assertThat(watchdog.enter(DRIVER_ID, "execute")).isSameAs(first);
+	}
+
+	@Test
+	void ignoresCallsThatReturnWhileReported() {
+		AtomicReference<DriverCall> returningCall = new AtomicReference<>();
+		DriverWatchdog watchdog = this.watchdog(2, 16, () -> {
+			DriverCall call = returningCall.getAndSet(null);
+
+			if (call != null) {
+				call.close();
+			}
+		});
+
+		returningCall.set(watchdog.enter(DRIVER_ID, "execute"));
+		watchdog.checkCalls(System.nanoTime() + 2 * THRESHOLD_NANOS);
+
+		DriverWatchdogStatistics statistics = this.statistics(watchdog);
+		assertThat(statistics.getInFlightCalls()).isZero();
+		assertThat(statistics.getStuckCalls()).isZero();
+		assertThat(statistics.isQuarantined()).isFalse();
+
+		// the returned call doesn't count, so it takes two more stuck calls to quarantine the driver
+		DriverCall first = watchdog.enter(DRIVER_ID, "execute");
+		DriverCall second = watchdog.enter(DRIVER_ID, "execute");
+
+		watchdog.checkCalls(System.nanoTime() + 2 * THRESHOLD_NANOS);
+
+		statistics = this.statistics(watchdog);
+		assertThat(statistics.getStuckCalls()).isEqualTo(2);
+		assertThat(statistics.isQuarantined()).isTrue();
+
+		first.close();
+		second.close();
+		assertThat(this.statistics(watchdog).getStuckCalls()).isZero();
+	}
+
+	@Test
+	void ignoresNewCallInReusedSlot() {
+		AtomicReference<DriverWatchdog> watchdog = new AtomicReference<>();
+		AtomicReference<DriverCall> returningCall = new AtomicReference<>();
+		AtomicReference<DriverCall> newCall = new AtomicReference<>();
+
+		watchdog.set(this.watchdog(1, 1, () -> {
+			// the stuck call returns and a new call takes its slot while the watchdog reports it
+			returningCall.get().close();
+			newCall.set(watchdog.get().enter(DRIVER_ID, "execute"));
+		}));
+
+		returningCall.set(watchdog.get().enter(DRIVER_ID, "execute"));
+		watchdog.get().checkCalls(System.nanoTime() + 2 * THRESHOLD_NANOS);
+
+		assertThat(newCall.get()).isSameAs(returningCall.get());
+		DriverWatchdogStatistics statistics = this.statistics(watchdog.get());
+		assertThat(statistics.getInFlightCalls()).isEqualTo(1);
+		assertThat(statistics.getStuckCalls()).isZero();
+		assertThat(statistics.isQuarantined()).isFalse();
+
+		newCall.get().close();
+		statistics = this.statistics(watchdog.get());
+		assertThat(statistics.getInFlightCalls()).isZero();
+		assertThat(statistics.getStuckCalls()).isZero();
+	}
+
+	private DriverWatchdog watchdog(int maxStuckCalls, int maxTrackedCalls) {
+		return this.watchdog(maxStuckCalls, maxTrackedCalls, () -> {
+		});
+	}
+
+	/**
+	 * @param whileReporting runs while the watchdog reports a stuck call, after it has been marked as stuck
+	 */
+	private DriverWatchdog watchdog(int maxStuckCalls, int maxTrackedCalls, Runnable whileReporting) {
+		DriverWatchdog watchdog = new DriverWatchdog(
+			new MockEnvironment(),
+			true,
+			Duration.ofNanos(THRESHOLD_NANOS),
+			maxStuckCalls,
+			Duration.ofNanos(QUARANTINE_NANOS),
+			false,
+			1000,
+			maxTrackedCalls) {
+
+			@Override
+			List<String> captureStackTrace(Thread thread) {
+				whileReporting.run();
+				return super.captureStackTrace(thread);
+			}
+		};
+
+		watchdog.addDriverRecycleListener(this.recycledDrivers::add);
+		return watchdog;
+	}
+
+	private DriverWatchdogStatistics statistics(DriverWatchdog watchdog) {
+		return watchdog
+			.getStatistics()
+			.stream()
+			.filter(stats -> stats.getDriverId().equals(DRIVER_ID))
+			.findFirst()
+			.orElseThrow();
+	}
+}
@@ -0,0 +1,145 @@
+package com.github.berrycontrol.drivermanager;
+
+import com.github.berrycontrol.driver.api.BerryHubDeviceCommand;
+import com.github.berrycontrol.driver.api.BerryHubDeviceDriver;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Compares virtual threads with the platform thread pool of the servlet container when many button presses
+ * arrive at once. Every press is dispatched like {@code PairedDeviceDelegate.executeDeviceCommand} does it,
+ * into a driver that blocks for {@value #DRIVER_LATENCY_MILLIS} ms like one that talks to an IR blaster or a
+ * device on the network. Throughput, peak heap and peak platform threads are logged for both.
+ * <p>
+ * Requires Java 21, run it with {@code mvn -Pjava21,benchmark test}.
+ */
+@Tag("benchmark")
+@SuppressWarnings({ "rawtypes", "unchecked" })
+class VirtualThreadDispatchBenchmarkTests {
+	private final static Logger logger = LoggerFactory.getLogger(VirtualThreadDispatchBenchmarkTests.class);
+
+	private static final int PRESSES = 20_000;
+	private static final int DEVICES = 2_000;
+	private static final int DRIVER_LATENCY_MILLIS = 20;
+	// the default maximum number of request threads of Tomcat
+	private static final int PLATFORM_THREADS = 200;
+
+	@Test
+	void virtualThreadsOutperformThePlatformThreadPool() throws Exception {
+		ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+		assumeTrue(virtualThreads != null, "virtual threads require Java 21");
+
+		Result platform = this.run("platform threads", Executors.newFixedThreadPool(PLATFORM_THREADS));
+		Result virtual = this.run("virtual threads", virtualThreads);
+
+		assertThat(virtual.pressesPerSecond()).isGreaterThan(platform.pressesPerSecond());
+	}
+
+	private Result run(String name, ExecutorService executor) throws InterruptedException {
+		BerryHubDeviceCommand command = mock(BerryHubDeviceCommand.class);
+		when(command.getId()).thenReturn(1);
+		BerryHubDeviceDriver driver = mock(BerryHubDeviceDriver.class, withSettings().stubOnly());
+		doReturn(List.of(command)).when(driver).getCommands();
+		doAnswer(invocation -> {
+			Thread.sleep(DRIVER_LATENCY_MILLIS);
+			return null;
+		}).when(driver).execute(any());
+
+		DriverWatchdog watchdog = new DriverWatchdog(
+			new MockEnvironment(), true, Duration.ofSeconds(10), 2, Duration.ofSeconds(30), false, 1000, PRESSES);
+		List<DeviceHandle> devices = new ArrayList<>(DEVICES);
+
+		for (int i = 0; i < DEVICES; i++) {
+			devices.add(new DeviceHandle(UUID.randomUUID(), "benchmark", "device-" + i, driver, 0));
+		}
+
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		CountDownLatch done = new CountDownLatch(PRESSES);
+		long[] peakHeapBytes = { 0 };
+		Thread sampler = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				peakHeapBytes[0] = Math.max(peakHeapBytes[0], memory.getHeapMemoryUsage().getUsed());
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "benchmark-sampler");
+
+		System.gc();
+		long baselineHeapBytes = memory.getHeapMemoryUsage().getUsed();
+		threads.resetPeakThreadCount();
+		sampler.start();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < PRESSES; i++) {
+			DeviceHandle device = devices.get(i % DEVICES);
+
+			executor.execute(() -> {
+				try (DriverCall call = watchdog.enter(device.getDriverId(), "execute")) {
+					device.execute(command);
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+		assertThat(done.await(5, TimeUnit.MINUTES)).isTrue();
+		long elapsedNanos = System.nanoTime() - start;
+
+		sampler.interrupt();
+		sampler.join();
+		executor.shutdown();
+
+		Result result = new Result(
+			PRESSES * 1e9 / elapsedNanos,
+			Math.max(0, peakHeapBytes[0] - baselineHeapBytes),
+			threads.getPeakThreadCount());
+
+		logger.info("Benchmark {}: {} presses in {} ms, {} presses/s, peak heap +{} MiB, peak platform threads {}",
+			name,
+			PRESSES,
+			TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+			Math.round(result.pressesPerSecond()),
+			result.peakHeapBytes() / (1024 * 1024),
+			result.peakPlatformThreads());
+
+		return result;
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	private record Result(double pressesPerSecond, long peakHeapBytes, int peakPlatformThreads) {
+	}
+}
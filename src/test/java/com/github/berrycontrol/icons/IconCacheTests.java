@@ -0,0 +1,179 @@
+package com.github.berrycontrol.icons;
+
+import com.github.berrycontrol.drivermanager.DriverManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class IconCacheTests {
+
+	private static final UUID DRIVER_ID = UUID.fromString("2b3c5b0e-8e54-4a6f-9f43-0a1f6a3e1c11");
+
+	@TempDir
+	Path cacheDirectory;
+
+	private final DriverManager driverManager = mock(DriverManager.class);
+
+	@BeforeEach
+	void setUp() {
+		when(this.driverManager.getDriverVersion(DRIVER_ID)).thenReturn(Optional.of("1.0"));
+	}
+
+	@Test
+	void extractsBase64DataUris() throws Exception {
+		IconCache cache = this.cache(1024, 1024);
+		byte[] png = icon(1, 16);
+
+		String reference = cache.toIconReference(DRIVER_ID, 1, "data:image/png;base64," + Base64.getEncoder().encodeToString(png));
+
+		assertThat(reference).isEqualTo(IconCache.ICONS_PATH + sha256(png) + ".png");
+		String name = reference.substring(IconCache.ICONS_PATH.length());
+		assertThat(IconCache.isValidName(name)).isTrue();
+		assertThat(cache.getFromMemory(name)).isEqualTo(png);
+		assertThat(cache.getFile(name)).hasValueSatisfying(file -> assertThat(file).hasBinaryContent(png));
+	}
+
+	@Test
+	void extractsPlainDataUris() throws Exception {
+		IconCache cache = this.cache(1024, 1024);
+		String svg = "<svg xmlns=\"http://www.w3.org/2000/svg\"/>";
+
+		String reference = cache.toIconReference(DRIVER_ID, 1, "data:image/svg+xml;charset=utf-8," + svg);
+
+		assertThat(reference).isEqualTo(IconCache.ICONS_PATH + sha256(svg.getBytes(StandardCharsets.UTF_8)) + ".svg");
+	}
+
+	@Test
+	void keepsOtherIconsInline() throws Exception {
+		IconCache cache = this.cache(1024, 1024);
+
+		assertThat(cache.toIconReference(DRIVER_ID, 1, null)).isNull();
+		assertThat(cache.toIconReference(DRIVER_ID, 1, "power")).isEqualTo("power");
+		assertThat(cache.toIconReference(DRIVER_ID, 1, "data:image/png;base64")).isEqualTo("data:image/png;base64");
+		assertThat(cache.toIconReference(DRIVER_ID, 2, "data:image/png;base64,!!!")).isEqualTo("data:image/png;base64,!!!");
+
+		try (var files = Files.list(this.cacheDirectory)) {
+			assertThat(files).isEmpty();
+		}
+	}
+
+	@Test
+	void validatesNames() {
+		String hash = "a".repeat(64);
+
+		assertThat(IconCache.isValidName(hash + ".png")).isTrue();
+		assertThat(IconCache.isValidName(hash + ".svg")).isTrue();
+		assertThat(IconCache.isValidName(hash)).isFalse();
+		assertThat(IconCache.isValidName("A".repeat(64) + ".png")).isFalse();
+		assertThat(IconCache.isValidName("a".repeat(63) + ".png")).isFalse();
+		assertThat(IconCache.isValidName(hash + ".png/../../etc/passwd")).isFalse();
+		assertThat(IconCache.isValidName("../" + hash + ".png")).isFalse();
+	}
+
+	@Test
+	void boundsMemoryInLeastRecentlyUsedOrder() throws Exception {
+		IconCache cache = this.cache(100, 1024);
+
+		cache.putIntoMemory("first", icon(1, 40));
+		cache.putIntoMemory("second", icon(2, 40));
+		assertThat(cache.getFromMemory("first")).isNotNull();
+		cache.putIntoMemory("third", icon(3, 40));
+
+		assertThat(cache.getFromMemory("first")).isNotNull();
+		assertThat(cache.getFromMemory("second")).isNull();
+		assertThat(cache.getFromMemory("third")).isNotNull();
+	}
+
+	@Test
+	void boundsDiskInLeastRecentlyUsedOrder() throws Exception {
+		IconCache cache = this.cache(0, 100);
+
+		String first = this.extract(cache, 1, icon(1, 40));
+		String second = this.extract(cache, 2, icon(2, 40));
+		String third = this.extract(cache, 3, icon(3, 40));
+
+		// all icons are referenced by the loaded driver version
+		assertThat(cache.getFile(first)).isPresent();
+		assertThat(cache.getFile(second)).isPresent();
+		assertThat(cache.getFile(third)).isPresent();
+
+		when(this.driverManager.getDriverVersion(DRIVER_ID)).thenReturn(Optional.of("2.0"));
+		assertThat(cache.getFile(first)).isPresent();
+		String fourth = this.extract(cache, 4, icon(4, 40));
+
+		assertThat(cache.getFile(first)).isPresent();
+		assertThat(cache.getFile(second)).isEmpty();
+		assertThat(cache.getFile(third)).isEmpty();
+		assertThat(cache.getFile(fourth)).isPresent();
+	}
+
+	@Test
+	void keepsReferencedIconsOnDisk() throws Exception {
+		IconCache cache = this.cache(0, 100);
+
+		String first = this.extract(cache, 1, icon(1, 40));
+		String second = this.extract(cache, 2, icon(2, 40));
+		String third = this.extract(cache, 3, icon(3, 40));
+
+		assertThat(cache.getFile(first)).isPresent();
+		assertThat(cache.getFile(second)).isPresent();
+		assertThat(cache.getFile(third)).isPresent();
+		// the reference of the first icon is still valid after its command list is fetched again
+		assertThat(this.extract(cache, 1, icon(1, 40))).isEqualTo(first);
+	}
+
+	@Test
+	void restoresAccessOrderFromDisk() throws Exception {
+		IconCache cache = this.cache(0, 1024);
+
+		String first = this.extract(cache, 1, icon(1, 40));
+		String second = this.extract(cache, 2, icon(2, 40));
+		Files.setLastModifiedTime(this.cacheDirectory.resolve(first), FileTime.fromMillis(2000));
+		Files.setLastModifiedTime(this.cacheDirectory.resolve(second), FileTime.fromMillis(1000));
+
+		this.cache(0, 40);
+
+		assertThat(this.cacheDirectory.resolve(first)).exists();
+		assertThat(this.cacheDirectory.resolve(second)).doesNotExist();
+	}
+
+	private IconCache cache(long maxMemoryBytes, long maxDiskBytes) throws IOException {
+		return new IconCache(this.driverManager, this.cacheDirectory.toString(), maxMemoryBytes, maxDiskBytes);
+	}
+
+	private String extract(IconCache cache, int commandId, byte[] data) {
+		String reference = cache.toIconReference(DRIVER_ID, commandId, "data:image/png;base64," + Base64.getEncoder().encodeToString(data));
+
+		assertThat(reference).startsWith(IconCache.ICONS_PATH);
+		return reference.substring(IconCache.ICONS_PATH.length());
+	}
+
+	private static byte[] icon(int seed, int length) {
+		byte[] data = new byte[length];
+
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (seed * 31 + i);
+		}
+		return data;
+	}
+
+	private static String sha256(byte[] data) throws NoSuchAlgorithmException {
+		return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+	}
+}
@@ -0,0 +1,241 @@
+package com.github.berrycontrol.snapshot;
+
+import com.github.berrycontrol.persistence.model.PairedDevice;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+class HubSnapshotReaderWriterTests {
+
+	private static final UUID DRIVER_ID = UUID.fromString("2b3c5b0e-8e54-4a6f-9f43-0a1f6a3e1c11");
+
+	@Test
+	void roundTrip() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (HubSnapshotWriter writer = new HubSnapshotWriter(bytes)) {
+			writer.writeDriver(DRIVER_ID, "TV", "1.2.0");
+			writer.writeDriver(UUID.randomUUID(), "Receiver", null);
+			writer.writePairedDevice(pairedDevice("tv-1", "Living Room TV"));
+			writer.writePairedDevice(pairedDevice("tv-2", "Kitchen TV"));
+			writer.finish();
+		}
+
+		Recorder recorder = read(bytes.toByteArray());
+
+		assertThat(recorder.drivers).containsExactly("TV/1.2.0", "Receiver/null");
+		assertThat(recorder.pairedDevices)
+			.extracting(PairedDevice::getDeviceId, PairedDevice::getDeviceName)
+			.containsExactly(
+				tuple("tv-1", "Living Room TV"),
+				tuple("tv-2", "Kitchen TV"));
+		assertThat(recorder.pairedDevices).allMatch(dev -> dev.getDriverId().equals(DRIVER_ID.toString()));
+	}
+
+	@Test
+	void skipsUnknownRecordsAndAppendedFields() throws IOException {
+		UUID pairingId = UUID.randomUUID();
+		byte[] snapshot = new RawSnapshot(HubSnapshotFormat.VERSION)
+			.record((byte) 42, payload(out -> out.writeUTF("a record type from the future")))
+			.record(HubSnapshotFormat.TAG_PAIRED_DEVICE, payload(out -> {
+				out.writeLong(pairingId.getMostSignificantBits());
+				out.writeLong(pairingId.getLeastSignificantBits());
+				out.writeLong(DRIVER_ID.getMostSignificantBits());
+				out.writeLong(DRIVER_ID.getLeastSignificantBits());
+				out.writeUTF("tv-1");
+				out.writeUTF("Living Room TV");
+				// a field appended by a newer version
+				out.writeUTF("room: living room");
+			}))
+			.end();
+
+		Recorder recorder = read(snapshot);
+
+		assertThat(recorder.drivers).isEmpty();
+		assertThat(recorder.pairedDevices).hasSize(1);
+		assertThat(recorder.pairedDevices.get(0).getId()).isEqualTo(pairingId);
+		assertThat(recorder.pairedDevices.get(0).getDeviceName()).isEqualTo("Living Room TV");
+	}
+
+	@Test
+	void rejectsUnfinishedSnapshot() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (HubSnapshotWriter writer = new HubSnapshotWriter(bytes)) {
+			writer.writeDriver(DRIVER_ID, "TV", "1.2.0");
+			writer.writePairedDevice(pairedDevice("tv-1", "Living Room TV"));
+			// the export failed, finish() isn't called
+		}
+
+		assertThatThrownBy(() -> read(bytes.toByteArray())).isInstanceOf(IOException.class);
+	}
+
+	@Test
+	void rejectsTruncatedStream() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try (HubSnapshotWriter writer = new HubSnapshotWriter(bytes)) {
+			for (int i = 0; i < 100; i++) {
+				writer.writePairedDevice(pairedDevice("tv-" + i, "TV " + i));
+			}
+			writer.finish();
+		}
+
+		byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() / 2);
+
+		assertThatThrownBy(() -> read(truncated)).isInstanceOf(IOException.class);
+	}
+
+	@Test
+	void rejectsSnapshotWithoutEndRecord() throws IOException {
+		byte[] snapshot = new RawSnapshot(HubSnapshotFormat.VERSION)
+			.record(HubSnapshotFormat.TAG_DRIVER, payload(out -> {
+				out.writeLong(DRIVER_ID.getMostSignificantBits());
+				out.writeLong(DRIVER_ID.getLeastSignificantBits());
+				out.writeUTF("TV");
+				out.writeUTF("");
+			}))
+			.withoutEnd();
+
+		assertThatThrownBy(() -> read(snapshot)).isInstanceOf(IOException.class).hasMessageContaining("truncated");
+	}
+
+	@Test
+	void rejectsRecordCountMismatch() throws IOException {
+		byte[] snapshot = new RawSnapshot(HubSnapshotFormat.VERSION)
+			.record((byte) 42, new byte[0])
+			.end(2);
+
+		assertThatThrownBy(() -> read(snapshot)).isInstanceOf(IOException.class).hasMessageContaining("record count");
+	}
+
+	@Test
+	void rejectsInvalidRecordLength() throws IOException {
+		RawSnapshot raw = new RawSnapshot(HubSnapshotFormat.VERSION);
+
+		raw.out.writeByte(HubSnapshotFormat.TAG_PAIRED_DEVICE);
+		raw.out.writeInt(-1);
+
+		byte[] snapshot = raw.withoutEnd();
+
+		assertThatThrownBy(() -> read(snapshot)).isInstanceOf(IOException.class).hasMessageContaining("length");
+	}
+
+	@Test
+	void rejectsUnsupportedVersions() throws IOException {
+		byte[] tooOld = new RawSnapshot((short) 0).end();
+		byte[] tooNew = new RawSnapshot((short) (HubSnapshotFormat.VERSION + 1)).end();
+
+		assertThatThrownBy(() -> read(tooOld)).isInstanceOf(IOException.class).hasMessageContaining("version");
+		assertThatThrownBy(() -> read(tooNew)).isInstanceOf(IOException.class).hasMessageContaining("version");
+	}
+
+	private static PairedDevice pairedDevice(String deviceId, String deviceName) {
+		return PairedDevice
+			.builder()
+			.id(UUID.randomUUID())
+			.driverId(DRIVER_ID.toString())
+			.deviceId(deviceId)
+			.deviceName(deviceName)
+			.build();
+	}
+
+	private static Recorder read(byte[] snapshot) throws IOException {
+		Recorder recorder = new Recorder();
+
+		try (HubSnapshotReader reader = new HubSnapshotReader(new ByteArrayInputStream(snapshot))) {
+			reader.read(recorder);
+		}
+		return recorder;
+	}
+
+	private static byte[] payload(PayloadWriter writer) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		writer.write(new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	private interface PayloadWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private static class Recorder implements HubSnapshotReader.Handler {
+		private final List<String> drivers = new ArrayList<>();
+		private final List<PairedDevice> pairedDevices = new ArrayList<>();
+
+		@Override
+		public void driver(UUID driverId, String displayName, String version) {
+			this.drivers.add(displayName + "/" + version);
+		}
+
+		@Override
+		public void pairedDevice(PairedDevice pairedDevice) {
+			this.pairedDevices.add(pairedDevice);
+		}
+	}
+
+	/**
+	 * Writes snapshots record by record without {@link HubSnapshotWriter}, to produce snapshots that a newer
+	 * version or a broken export would write.
+	 */
+	private static class RawSnapshot {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final GZIPOutputStream gzip;
+		private final CheckedOutputStream checked;
+		private final DataOutputStream out;
+		private long recordCount = 0;
+
+		RawSnapshot(short version) throws IOException {
+			this.gzip = new GZIPOutputStream(this.bytes);
+			this.checked = new CheckedOutputStream(this.gzip, new CRC32());
+			this.out = new DataOutputStream(this.checked);
+
+			this.out.writeInt(HubSnapshotFormat.MAGIC);
+			this.out.writeShort(version);
+		}
+
+		RawSnapshot record(byte tag, byte[] payload) throws IOException {
+			this.out.writeByte(tag);
+			this.out.writeInt(payload.length);
+			this.out.write(payload);
+			this.recordCount++;
+			return this;
+		}
+
+		byte[] end() throws IOException {
+			return this.end(this.recordCount);
+		}
+
+		byte[] end(long recordCount) throws IOException {
+			this.out.writeByte(HubSnapshotFormat.TAG_END);
+			this.out.writeInt(2 * Long.BYTES);
+
+			long checksum = this.checked.getChecksum().getValue();
+
+			this.out.writeLong(recordCount);
+			this.out.writeLong(checksum);
+			return this.withoutEnd();
+		}
+
+		byte[] withoutEnd() throws IOException {
+			this.out.flush();
+			this.gzip.finish();
+			return this.bytes.toByteArray();
+		}
+	}
+}